@@ -21,6 +21,12 @@ public abstract class AbstractChannel extends AbstractSelectableChannel implemen
 
     private final int validOps_;
 
+    /** True if O_NONBLOCK is set to the file descriptor; guarded by stateLock_. */
+    private boolean nonBlockingFd_;
+
+    /** True if the socket is not shutdown on close; guarded by stateLock_. */
+    private boolean keepSocketOnClose_;
+
     private static final SelectorProvider SELECTOR_PROVIDER = new EPollSelectorProvider();
 
     /**
@@ -40,11 +46,16 @@ public abstract class AbstractChannel extends AbstractSelectableChannel implemen
     @Override
     protected void implCloseSelectableChannel() throws IOException {
         synchronized (stateLock_) {
-            if (Native.shutdown(fd_, Native.SHUT_RDWR) == -1) {
-                throw new IOException(Native.getLastError());
+            int shutdownErrno = 0;
+            if (!keepSocketOnClose_ && Native.shutdown(fd_, Native.SHUT_RDWR) == -1) {
+                shutdownErrno = Native.errno();
             }
+            // Close the file descriptor even if shutdown() fails, or it leaks.
             if (Native.close(fd_) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
+            }
+            if (shutdownErrno != 0) {
+                throw ErrnoException.of(shutdownErrno);
             }
         }
     }
@@ -52,14 +63,51 @@ public abstract class AbstractChannel extends AbstractSelectableChannel implemen
     @Override
     protected void implConfigureBlocking(boolean block) throws IOException {
         synchronized (stateLock_) {
+            if (nonBlockingFd_ != block) {
+                return;
+            }
             int flags = Native.fcntl(fd_, Native.F_GETFL, 0);
+            if (flags == -1) {
+                throw ErrnoException.of(Native.errno());
+            }
             if (block) {
-                flags |= Native.O_NONBLOCK;
-            } else {
                 flags &= ~Native.O_NONBLOCK;
+            } else {
+                flags |= Native.O_NONBLOCK;
             }
-            Native.fcntl(fd_, Native.F_SETFL, flags);
+            if (Native.fcntl(fd_, Native.F_SETFL, flags) == -1) {
+                throw ErrnoException.of(Native.errno());
+            }
+            nonBlockingFd_ = !block;
+        }
+    }
+
+    /**
+     * Closes this channel without shutting down the socket. Use this method instead of {@link #close()}
+     * after the file descriptor is passed to another process by
+     * {@link net.ihiroky.uds4j.ControlMessageBuffer}, so the receiver can keep using the socket.
+     *
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public final void closeWithoutShutdown() throws IOException {
+        synchronized (stateLock_) {
+            keepSocketOnClose_ = true;
+        }
+        close();
+    }
+
+    /**
+     * Tells this channel that O_NONBLOCK is already set to the file descriptor,
+     * which is created with SOCK_NONBLOCK for example. Then configures this channel
+     * in non-blocking mode without fcntl().
+     *
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    void configureNonBlockingFd() throws IOException {
+        synchronized (stateLock_) {
+            nonBlockingFd_ = true;
         }
+        configureBlocking(false);
     }
 
     @Override
@@ -18,7 +18,7 @@ import java.util.Set;
 /**
  * A selectable channel for unix domain sockets.
  *
- * This channel supports the following socket options: SO_SNDBUF, SO_PASSCRED (unimplemented)
+ * This channel supports the following socket options: SO_SNDBUF, SO_PASSCRED
  *
  * The implementations of this class accept {@link UnixDomainSocketAddress} only
  * as {@link java.net.SocketAddress}. The implementations throw {@link java.lang.ClassCastException}
@@ -56,7 +56,7 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
     protected static int open(int type) throws IOException {
         int fd = Native.socket(Native.AF_UNIX, type, Native.PROTOCOL);
         if (fd == -1) {
-            throw new IOException(Native.getLastError());
+            throw ErrnoException.of(Native.errno());
         }
         return fd;
     }
@@ -70,12 +70,18 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
             if (localAddress_ == null) {
                 AddressBuffer buffer = AddressBuffer.getInstance();
                 Native.SockAddrUn sun = buffer.getAddress();
+                sun.clear();
                 sun.sunFamily_ = Native.AF_UNIX;
-                // TODO Check result for unbound socket.
+                buffer.getSize().setValue(sun.size());
                 if (Native.getsockname(fd_, sun, buffer.getSize()) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
-                localAddress_ = new UnixDomainSocketAddress(sun.getSunPath());
+                String path = sun.getSunPath();
+                if (buffer.getSize().getValue() <= Native.SockAddrUn.SUN_PATH_OFFSET || path.length() == 0) {
+                    // The socket is not bound to any path.
+                    return null;
+                }
+                localAddress_ = new UnixDomainSocketAddress(path);
             }
         }
         return localAddress_;
@@ -101,7 +107,7 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
                 ByteBuffer buffer = ByteBuffer.allocate(INT_BYTES).order(ByteOrder.nativeOrder());
                 buffer.putInt((Integer) value);
                 if (Native.setsockopt(fd_, Native.SOL_SOCKET, Native.SO_SNDBUF, buffer, buffer.capacity()) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 return this;
             }
@@ -110,7 +116,7 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
                 boolean on = (Boolean) value;
                 buffer.putInt(on ? 1 : 0);
                 if (Native.setsockopt(fd_, Native.SOL_SOCKET, Native.SO_PASSCRED, buffer, buffer.capacity()) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 return this;
             }
@@ -132,7 +138,7 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
                 ByteBuffer buffer = ByteBuffer.allocate(INT_BYTES).order(ByteOrder.nativeOrder());
                 IntByReference sizeRef = AddressBuffer.getInstance().getSize();
                 if (Native.getsockopt(fd_, Native.SOL_SOCKET, Native.SO_SNDBUF, buffer, sizeRef) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 return name.type().cast(buffer.getInt());
             }
@@ -140,7 +146,7 @@ public abstract class AbstractUnixDomainChannel extends AbstractChannel {
                 ByteBuffer buffer = ByteBuffer.allocate(INT_BYTES).order(ByteOrder.nativeOrder());
                 IntByReference sizeRef = AddressBuffer.getInstance().getSize();
                 if (Native.getsockopt(fd_, Native.SOL_SOCKET, Native.SO_PASSCRED, buffer, sizeRef) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 return name.type().cast(buffer.getInt() != 0);
             }
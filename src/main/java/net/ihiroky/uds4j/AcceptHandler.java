@@ -0,0 +1,18 @@
+package net.ihiroky.uds4j;
+
+/**
+ * A callback to handle the channels accepted by an {@link net.ihiroky.uds4j.EventLoop}.
+ *
+ * @see net.ihiroky.uds4j.EventLoopGroup#registerAcceptor(ServerUnixDomainChannel, AcceptHandler)
+ */
+public interface AcceptHandler {
+
+    /**
+     * Handles the accepted channel. This method is called by the thread of the loop
+     * which accepts the channel, so the channel is usually registered to the same loop.
+     *
+     * @param channel the accepted channel
+     * @param loop the loop which accepts the channel
+     */
+    void accepted(ClientUnixDomainChannel channel, EventLoop loop);
+}
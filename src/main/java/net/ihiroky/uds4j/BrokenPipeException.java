@@ -0,0 +1,20 @@
+package net.ihiroky.uds4j;
+
+/**
+ * Signals that the peer has closed the connection for reading (EPIPE).
+ *
+ * This exception has no stack trace, so it is cheap to construct.
+ */
+public final class BrokenPipeException extends ErrnoException {
+
+    private static final long serialVersionUID = 7306420173935587361L;
+
+    BrokenPipeException() {
+        super(Native.EPIPE, "Broken pipe");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
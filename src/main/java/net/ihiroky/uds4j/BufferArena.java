@@ -0,0 +1,280 @@
+package net.ihiroky.uds4j;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Provides the direct buffers for I/O operations shared by all threads.
+ *
+ * The buffers are held in a depot, a {@link net.ihiroky.uds4j.SlabBufferPool} guarded by a lock.
+ * Each thread has a small magazine per size class in front of the depot, so acquiring and
+ * releasing a buffer does not take the lock of the depot as long as the magazine can serve it.
+ * The magazine caches only the buffers owned by the depot. The depth of the magazine is bounded
+ * by {@link #MAGAZINE_BYTES} per size class, so the large classes cache only one or two buffers.
+ * A full magazine returns half of its buffers to the depot. A thread which is about to terminate
+ * returns its magazine by {@link #releaseLocalMagazine()}; {@link net.ihiroky.uds4j.EventLoop}
+ * does so when it exits. The magazines of the other threads which have terminated are returned
+ * to the depot by {@link #trim()}, or when a new thread starts to use this arena.
+ * {@link #trim(boolean)} returns the magazines of the live threads too.
+ *
+ * Each magazine is guarded by its own lock, which is not contended except on the trim.
+ * The lock of a magazine is taken before the lock of the depot.
+ *
+ * This class is thread safe.
+ */
+final class BufferArena {
+
+    private final SlabBufferPool depot_;
+    private final List<Magazine> magazines_;
+    private final ThreadLocal<Magazine> localMagazine_;
+
+    /** The maximum number of the buffers cached in a magazine per size class. */
+    static final int MAGAZINE_SIZE = 16;
+
+    /** The maximum bytes of the buffers cached in a magazine per size class. */
+    static final int MAGAZINE_BYTES = 256 * 1024;
+
+    private static final int[] MAGAZINE_DEPTHS = new int[SlabBufferPool.CLASSES];
+
+    static {
+        for (int sc = 0; sc < MAGAZINE_DEPTHS.length; sc++) {
+            MAGAZINE_DEPTHS[sc] = Math.max(1, Math.min(MAGAZINE_SIZE, MAGAZINE_BYTES / SlabBufferPool.classSize(sc)));
+        }
+    }
+
+    private static final BufferArena INSTANCE = new BufferArena(new SlabBufferPool());
+
+    /**
+     * The thread local cache of the buffers.
+     */
+    private static final class Magazine {
+        final WeakReference<Thread> owner_;
+        final ByteBuffer[][] buffers_;
+        final int[] counts_;
+
+        Magazine(Thread owner, int classes) {
+            owner_ = new WeakReference<Thread>(owner);
+            buffers_ = new ByteBuffer[classes][];
+            counts_ = new int[classes];
+        }
+
+        boolean isOwnerAlive() {
+            Thread owner = owner_.get();
+            return owner != null && owner.isAlive();
+        }
+    }
+
+    BufferArena(SlabBufferPool depot) {
+        depot_ = depot;
+        magazines_ = new ArrayList<Magazine>();
+        localMagazine_ = new ThreadLocal<Magazine>() {
+            @Override
+            protected Magazine initialValue() {
+                return newMagazine();
+            }
+        };
+    }
+
+    /**
+     * Returns the arena shared in this library.
+     *
+     * @return the arena shared in this library
+     */
+    static BufferArena getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the number of the buffers cached in a magazine for the size class.
+     *
+     * @param sizeClass the index of the size class
+     * @return the number of the buffers cached in a magazine
+     */
+    static int magazineDepth(int sizeClass) {
+        return MAGAZINE_DEPTHS[sizeClass];
+    }
+
+    private Magazine newMagazine() {
+        flushMagazines(false);
+        Magazine magazine = new Magazine(Thread.currentThread(), SlabBufferPool.CLASSES);
+        synchronized (depot_) {
+            magazines_.add(magazine);
+        }
+        return magazine;
+    }
+
+    /**
+     * Acquires a direct buffer whose position is 0 and limit is {@code size}.
+     *
+     * @param size the required size
+     * @return the buffer
+     * @throws net.ihiroky.uds4j.OutOfNativeMemoryException if the allocator can't provide the memory
+     */
+    ByteBuffer acquire(int size) throws OutOfNativeMemoryException {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must not be negative.");
+        }
+        int sc = SlabBufferPool.sizeClass(size);
+        if (sc == -1) {
+            synchronized (depot_) {
+                return depot_.acquire(size);
+            }
+        }
+
+        Magazine magazine = localMagazine_.get();
+        synchronized (magazine) {
+            int count = magazine.counts_[sc];
+            if (count > 0) {
+                ByteBuffer[] buffers = magazine.buffers_[sc];
+                ByteBuffer buffer = buffers[--count];
+                buffers[count] = null;
+                magazine.counts_[sc] = count;
+                buffer.clear().limit(size);
+                return buffer;
+            }
+        }
+
+        ByteBuffer buffer;
+        synchronized (depot_) {
+            buffer = depot_.acquire(SlabBufferPool.classSize(sc));
+        }
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer acquired from this arena.
+     *
+     * @param buffer the buffer
+     * @throws java.lang.IllegalStateException if the buffer is already released
+     * @throws java.lang.IllegalArgumentException if the buffer is a part of a pooled buffer
+     */
+    void release(ByteBuffer buffer) {
+        if (!depot_.owns(buffer)) {
+            synchronized (depot_) {
+                depot_.release(buffer);
+            }
+            return;
+        }
+
+        int sc = SlabBufferPool.sizeClass(buffer.capacity());
+        int depth = MAGAZINE_DEPTHS[sc];
+        Magazine magazine = localMagazine_.get();
+        synchronized (magazine) {
+            ByteBuffer[] buffers = magazine.buffers_[sc];
+            if (buffers == null) {
+                buffers = new ByteBuffer[depth];
+                magazine.buffers_[sc] = buffers;
+            }
+            int count = magazine.counts_[sc];
+            for (int i = 0; i < count; i++) {
+                if (buffers[i] == buffer) {
+                    throw new IllegalStateException("The buffer is already released: " + buffer);
+                }
+            }
+            if (count == depth) {
+                int half = depth / 2;
+                synchronized (depot_) {
+                    for (int i = half; i < depth; i++) {
+                        depot_.release(buffers[i]);
+                        buffers[i] = null;
+                    }
+                }
+                count = half;
+            }
+            buffers[count] = buffer;
+            magazine.counts_[sc] = count + 1;
+        }
+    }
+
+    /**
+     * Returns the buffers cached by the calling thread to the depot, and returns the chunks
+     * whose buffers are all free to the allocator. The thread may use this arena after
+     * this call; a new magazine is created then.
+     *
+     * @return the number of the bytes returned to the allocator
+     */
+    long releaseLocalMagazine() {
+        Magazine magazine = localMagazine_.get();
+        localMagazine_.remove();
+        synchronized (magazine) {
+            synchronized (depot_) {
+                magazines_.remove(magazine);
+                flush(magazine);
+                return depot_.trim();
+            }
+        }
+    }
+
+    /**
+     * Returns the buffers cached by the terminated threads to the depot, and returns the chunks
+     * whose buffers are all free to the allocator.
+     *
+     * @return the number of the bytes returned to the allocator
+     */
+    long trim() {
+        return trim(false);
+    }
+
+    /**
+     * Returns the buffers cached by the terminated threads to the depot, and returns the chunks
+     * whose buffers are all free to the allocator. If {@code flushLiveMagazines} is true,
+     * the buffers cached by the live threads are also returned to the depot; the threads refill
+     * their magazines from the depot afterwards.
+     *
+     * @param flushLiveMagazines true if the magazines of the live threads are also flushed
+     * @return the number of the bytes returned to the allocator
+     */
+    long trim(boolean flushLiveMagazines) {
+        flushMagazines(flushLiveMagazines);
+        synchronized (depot_) {
+            return depot_.trim();
+        }
+    }
+
+    private void flushMagazines(boolean live) {
+        Magazine[] magazines;
+        synchronized (depot_) {
+            magazines = magazines_.toArray(new Magazine[magazines_.size()]);
+        }
+        for (Magazine magazine : magazines) {
+            boolean alive = magazine.isOwnerAlive();
+            if (alive && !live) {
+                continue;
+            }
+            synchronized (magazine) {
+                synchronized (depot_) {
+                    if (!alive) {
+                        magazines_.remove(magazine);
+                    }
+                    flush(magazine);
+                }
+            }
+        }
+    }
+
+    // Must be called with the locks of the magazine and depot_.
+    private void flush(Magazine magazine) {
+        for (int sc = 0; sc < magazine.buffers_.length; sc++) {
+            ByteBuffer[] buffers = magazine.buffers_[sc];
+            for (int j = 0; j < magazine.counts_[sc]; j++) {
+                depot_.release(buffers[j]);
+                buffers[j] = null;
+            }
+            magazine.counts_[sc] = 0;
+        }
+    }
+
+    /**
+     * Returns the number of the buffers cached in the depot.
+     *
+     * @return the number of the buffers cached in the depot
+     */
+    int depotCount() {
+        synchronized (depot_) {
+            return depot_.count();
+        }
+    }
+}
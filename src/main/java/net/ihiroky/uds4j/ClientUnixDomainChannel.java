@@ -1,14 +1,21 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.NativeLong;
+import com.sun.jna.ptr.IntByReference;
+import com.sun.jna.ptr.LongByReference;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.AlreadyBoundException;
 import java.nio.channels.AlreadyConnectedException;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ConnectionPendingException;
+import java.nio.channels.FileChannel;
 import java.nio.channels.NoConnectionPendingException;
 import java.nio.channels.NotYetConnectedException;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.UnsupportedAddressTypeException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -18,16 +25,33 @@ import java.util.List;
  * A selectable channel for connecting unix domain sockets.
  *
  * This channel supports non-blocking connection like {@link java.nio.channels.SocketChannel}.
+ *
+ * {@link #transferFrom(java.nio.channels.FileChannel, long, long)} and
+ * {@link #transferTo(java.nio.channels.FileChannel, long, long)} use sendfile() and splice() only if
+ * the file descriptor of {@link java.nio.channels.FileChannel} is accessible. On Java 9 or later,
+ * the JVM needs {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED} and
+ * {@code --add-opens java.base/java.io=ALL-UNNAMED}; without them the bytes are copied through
+ * a buffer and a warning is logged once.
  */
 public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
 
     private volatile ConnectionState connectionState_;
     private int shutdownState_;
     private UnixDomainSocketAddress remoteAddress_;
+    private Credentials peerCredentials_;
+    private SplicePipe splicePipe_;
 
     private static final int SHUTDOWN_INPUT = 1;
     private static final int SHUTDOWN_OUTPUT = 1 << 1;
 
+    /** The return value of sendfile() and splice() which represents the file does not support them. */
+    private static final long UNSUPPORTED = -2L;
+
+    /** The maximum bytes transferred by a sendfile() call, which is the limit in Linux. */
+    private static final long MAX_SENDFILE_BYTES = 0x7ffff000L;
+
+    private static final int TRANSFER_BUFFER_SIZE = 64 * 1024;
+
     /**
      * The connection state of this channel.
      */
@@ -47,11 +71,6 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
         connectionState_ = connected ? ConnectionState.CONNECTED : ConnectionState.INITIAL;
     }
 
-    private ClientUnixDomainChannel(int fd, int validOps) throws IOException {
-        super(fd, validOps);
-        connectionState_ = ConnectionState.INITIAL;
-    }
-
     @Override
     protected boolean ensureReadOpen() throws IOException {
         synchronized (stateLock_) {
@@ -95,6 +114,27 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
         return new ClientUnixDomainChannel(fd, false);
     }
 
+    /**
+     * Creates a channel for the file descriptor of a connected stream socket, for example the one received
+     * by {@link #read(java.nio.ByteBuffer, ControlMessageBuffer)}. The channel is configured in non-blocking
+     * mode if O_NONBLOCK is set to the file descriptor.
+     *
+     * @param fd the file descriptor of a connected stream socket
+     * @return the new channel which owns the file descriptor
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public static ClientUnixDomainChannel wrap(int fd) throws IOException {
+        int flags = Native.fcntl(fd, Native.F_GETFL, 0);
+        if (flags == -1) {
+            throw ErrnoException.of(Native.errno());
+        }
+        ClientUnixDomainChannel channel = new ClientUnixDomainChannel(fd, true);
+        if ((flags & Native.O_NONBLOCK) != 0) {
+            channel.configureNonBlockingFd();
+        }
+        return channel;
+    }
+
     /**
      * Creates an pair of connected sockets.
      *
@@ -105,11 +145,10 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
         int[] sockets = {-1, -1};
         int n = Native.socketpair(Native.AF_UNIX, Native.SOCK_STREAM, Native.PROTOCOL, sockets);
         if (n == -1) {
-            throw new IOException(Native.getLastError());
+            throw ErrnoException.of(Native.errno());
         }
-        int ops = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
         return Collections.unmodifiableList(Arrays.asList(
-                new ClientUnixDomainChannel(sockets[0], ops), new ClientUnixDomainChannel(sockets[1], ops)));
+                new ClientUnixDomainChannel(sockets[0], true), new ClientUnixDomainChannel(sockets[1], true)));
     }
 
     private boolean connect() throws IOException {
@@ -130,14 +169,15 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
             try {
                 begin();
                 if (Native.connect(fd_, sun, sun.size()) == -1) {
-                    switch (Native.errno()) {
+                    int errno = Native.errno();
+                    switch (errno) {
                         case Native.EISCONN:
-                        connectionState_ = ConnectionState.CONNECTED;
+                            connectionState_ = ConnectionState.CONNECTED;
                             return true;
                         case Native.EALREADY:
                             return false;
                         default:
-                            throw new IOException(Native.getLastError());
+                            throw ErrnoException.of(errno);
                     }
                 }
                 connectionState_ = ConnectionState.CONNECTED;
@@ -219,8 +259,10 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
 
     /**
      * Returns the address of the peer connected to the remote channel.
+     * The address is looked up on the first call and cached.
      *
-     * @return the address of the peer connected to the remote channel
+     * @return the address of the peer connected to the remote channel,
+     *         or null if the peer is not bound to any path
      * @throws java.io.IOException if an I/O error occurs
      */
     public SocketAddress getRemoteAddress() throws IOException {
@@ -228,16 +270,54 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
             if (remoteAddress_ == null) {
                 AddressBuffer buffer = AddressBuffer.getInstance();
                 Native.SockAddrUn sun = buffer.getAddress();
+                sun.clear();
                 sun.sunFamily_ = Native.AF_UNIX;
+                buffer.getSize().setValue(sun.size());
                 if (Native.getpeername(fd_, sun, buffer.getSize()) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
-                remoteAddress_ = new UnixDomainSocketAddress(sun.getSunPath());
+                String path = sun.getSunPath();
+                if (buffer.getSize().getValue() <= Native.SockAddrUn.SUN_PATH_OFFSET || path.length() == 0) {
+                    // The peer is not bound to any path.
+                    return null;
+                }
+                remoteAddress_ = new UnixDomainSocketAddress(path);
             }
         }
         return remoteAddress_;
     }
 
+    /**
+     * Returns the credentials of the peer process, which are the ones at the time when the peer called
+     * connect() or socketpair(). The credentials are looked up by SO_PEERCRED on the first call and cached.
+     *
+     * @return the credentials of the peer process
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.nio.channels.NotYetConnectedException if this channel is not yet connected
+     * @throws java.io.IOException if some other I/O error occurs
+     */
+    public Credentials getPeerCredentials() throws IOException {
+        synchronized (stateLock_) {
+            if (peerCredentials_ == null) {
+                if (!isOpen()) {
+                    throw new ClosedChannelException();
+                }
+                if (!isConnected()) {
+                    throw new NotYetConnectedException();
+                }
+                ByteBuffer buffer = ByteBuffer.allocate(Native.UCRED_SIZE).order(ByteOrder.nativeOrder());
+                IntByReference size = AddressBuffer.getInstance().getSize();
+                size.setValue(buffer.capacity());
+                if (Native.getsockopt(fd_, Native.SOL_SOCKET, Native.SO_PEERCRED, buffer, size) == -1) {
+                    throw ErrnoException.of(Native.errno());
+                }
+                peerCredentials_ = new Credentials(buffer.getInt(Native.UCRED_PID_OFFSET),
+                        buffer.getInt(Native.UCRED_UID_OFFSET), buffer.getInt(Native.UCRED_GID_OFFSET));
+            }
+        }
+        return peerCredentials_;
+    }
+
     @Override
     public ClientUnixDomainChannel bind(SocketAddress local) throws IOException {
         if (!(local instanceof UnixDomainSocketAddress)) {
@@ -261,7 +341,7 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
             sun.setSunPath(uds.getPath());
             sun.sunFamily_ = Native.AF_UNIX;
             if (Native.bind(fd_, sun, sun.size()) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             localAddress_ = uds;
         }
@@ -286,7 +366,7 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
             }
             if ((shutdownState_ & SHUTDOWN_INPUT) == 0) {
                 if (Native.shutdown(fd_, Native.SHUT_RD) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 shutdownState_ |= SHUTDOWN_INPUT;
             }
@@ -312,11 +392,294 @@ public class ClientUnixDomainChannel extends ReadWriteUnixDomainChannel {
             }
             if ((shutdownState_ & SHUTDOWN_OUTPUT) == 0) {
                 if (Native.shutdown(fd_, Native.SHUT_WR) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 shutdownState_ |= SHUTDOWN_OUTPUT;
             }
         }
         return this;
     }
+
+    /**
+     * Transfers bytes from the file to this channel. The bytes are sent by sendfile() without being
+     * copied through the user space if the file descriptor of the file is available, or copied through
+     * a pooled buffer otherwise. The position of the file is not modified.
+     *
+     * In non-blocking mode, the transfer stops when the socket buffer gets full, so the number of
+     * the bytes transferred may be less than {@code count}.
+     *
+     * @param src the file
+     * @param position the position in the file at which the transfer begins
+     * @param count the maximum number of the bytes to be transferred
+     * @return the number of the bytes transferred
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed or shutdown for writing
+     * @throws java.nio.channels.NotYetConnectedException if this channel is not yet connected
+     * @throws java.io.IOException if some other I/O error occurs
+     */
+    public long transferFrom(FileChannel src, long position, long count) throws IOException {
+        checkTransferArguments(src, position, count);
+        if (!ensureWriteOpen()) {
+            throw new ClosedChannelException();
+        }
+        long size = src.size();
+        if (position >= size) {
+            return 0L;
+        }
+        count = Math.min(count, size - position);
+        int fd = FileDescriptors.of(src);
+        if (fd != -1) {
+            long sent = sendfile(fd, position, count);
+            if (sent != UNSUPPORTED) {
+                return sent;
+            }
+        }
+        return copyFrom(src, position, count);
+    }
+
+    private long sendfile(int fd, long position, long count) throws IOException {
+        LongByReference offset = new LongByReference(position);
+        long total = 0L;
+        try {
+            begin();
+            while (total < count) {
+                NativeLong length = new NativeLong(Math.min(count - total, MAX_SENDFILE_BYTES));
+                long sent = Native.sendfile(fd_, fd, offset, length).longValue();
+                if (sent == -1L) {
+                    int errno = Native.errno();
+                    if (errno == Native.EAGAIN) {
+                        break;
+                    }
+                    if ((errno == Native.EINVAL || errno == Native.ENOSYS) && total == 0L) {
+                        return UNSUPPORTED;
+                    }
+                    throw ErrnoException.of(errno);
+                }
+                if (sent == 0L) { // The file is truncated.
+                    break;
+                }
+                total += sent;
+            }
+        } finally {
+            end(total > 0L);
+        }
+        return total;
+    }
+
+    private long copyFrom(FileChannel src, long position, long count) throws IOException {
+        BufferArena arena = BufferArena.getInstance();
+        ByteBuffer buffer = arena.acquire(TRANSFER_BUFFER_SIZE);
+        long total = 0L;
+        try {
+            while (total < count) {
+                buffer.clear().limit((int) Math.min(count - total, TRANSFER_BUFFER_SIZE));
+                if (src.read(buffer, position + total) <= 0) {
+                    break;
+                }
+                buffer.flip();
+                total += write(buffer);
+                if (buffer.hasRemaining()) {
+                    // The socket buffer is full. The bytes not written are read again in the next call.
+                    break;
+                }
+            }
+        } finally {
+            arena.release(buffer);
+        }
+        return total;
+    }
+
+    /**
+     * Transfers bytes from this channel to the file. The bytes are moved by splice() through a pipe
+     * without being copied through the user space if the file descriptor of the file is available,
+     * or copied through a pooled buffer otherwise. The position of the file is not modified.
+     *
+     * The transfer stops when the bytes available in the socket buffer are exhausted, so the number of
+     * the bytes transferred may be less than {@code count}. In blocking mode, this method blocks until
+     * at least one byte is available like {@link #read(java.nio.ByteBuffer)}, and transfers 64KB at most.
+     *
+     * @param dst the file
+     * @param position the position in the file at which the transfer begins
+     * @param count the maximum number of the bytes to be transferred
+     * @return the number of the bytes transferred, possibly zero in non-blocking mode,
+     *         or -1 if this channel has reached end-of-stream
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.nio.channels.NotYetConnectedException if this channel is not yet connected
+     * @throws java.io.IOException if some other I/O error occurs
+     */
+    public long transferTo(FileChannel dst, long position, long count) throws IOException {
+        checkTransferArguments(dst, position, count);
+        if (!ensureReadOpen()) {
+            return -1L;
+        }
+        if (count == 0L) {
+            return 0L;
+        }
+        int fd = FileDescriptors.of(dst);
+        return (fd != -1) ? splice(dst, fd, position, count) : copyTo(dst, position, count);
+    }
+
+    private long splice(FileChannel dst, int fd, long position, long count) throws IOException {
+        SplicePipe pipe = takeSplicePipe();
+        boolean pipeEmpty = true;
+        LongByReference offset = new LongByReference(position);
+        boolean blocking = isBlocking();
+        int flags = blocking ? Native.SPLICE_F_MOVE : (Native.SPLICE_F_MOVE | Native.SPLICE_F_NONBLOCK);
+        long total = 0L;
+        boolean eof = false;
+        try {
+            begin();
+            while (total < count) {
+                int length = (int) Math.min(count - total, SplicePipe.CAPACITY);
+                long received =
+                        Native.splice(fd_, null, pipe.writeFd(), null, new NativeLong(length), flags).longValue();
+                if (received == -1L) {
+                    int errno = Native.errno();
+                    if (errno == Native.EAGAIN) {
+                        break;
+                    }
+                    throw ErrnoException.of(errno);
+                }
+                if (received == 0L) {
+                    eof = true;
+                    break;
+                }
+                pipeEmpty = false;
+                flushPipe(pipe, dst, fd, offset, received);
+                pipeEmpty = true;
+                total += received;
+                // The next splice() would block in blocking mode if the socket buffer is just emptied.
+                if (received < length || blocking) {
+                    break;
+                }
+            }
+        } finally {
+            end(total > 0L);
+            if (pipeEmpty) {
+                returnSplicePipe(pipe);
+            } else {
+                pipe.close();
+            }
+        }
+        return (eof && total == 0L) ? -1L : total;
+    }
+
+    /**
+     * Takes the pipe cached by this channel, or opens a new one if it is in use by another transfer.
+     */
+    private SplicePipe takeSplicePipe() throws IOException {
+        synchronized (stateLock_) {
+            SplicePipe pipe = splicePipe_;
+            if (pipe != null) {
+                splicePipe_ = null;
+                return pipe;
+            }
+        }
+        return SplicePipe.open();
+    }
+
+    /**
+     * Caches the empty pipe for the next transfer, or closes it if this channel is closed
+     * or another pipe is already cached.
+     */
+    private void returnSplicePipe(SplicePipe pipe) {
+        synchronized (stateLock_) {
+            if (isOpen() && splicePipe_ == null) {
+                splicePipe_ = pipe;
+                return;
+            }
+        }
+        pipe.close();
+    }
+
+    @Override
+    protected void implCloseSelectableChannel() throws IOException {
+        synchronized (stateLock_) {
+            if (splicePipe_ != null) {
+                splicePipe_.close();
+                splicePipe_ = null;
+            }
+        }
+        super.implCloseSelectableChannel();
+    }
+
+    // Moves the bytes in the pipe to the file, so the pipe gets empty.
+    private static void flushPipe(SplicePipe pipe, FileChannel dst, int fd, LongByReference offset, long bytes)
+            throws IOException {
+        while (bytes > 0L) {
+            long moved = Native.splice(
+                    pipe.readFd(), null, fd, offset, new NativeLong(bytes), Native.SPLICE_F_MOVE).longValue();
+            if (moved == -1L) {
+                int errno = Native.errno();
+                if (errno == Native.EINVAL) {
+                    // The file does not support splice(), for example it is opened in append mode.
+                    copyPipe(pipe, dst, offset.getValue(), (int) bytes);
+                    return;
+                }
+                throw ErrnoException.of(errno);
+            }
+            bytes -= moved;
+        }
+    }
+
+    private static void copyPipe(SplicePipe pipe, FileChannel dst, long position, int bytes) throws IOException {
+        BufferArena arena = BufferArena.getInstance();
+        ByteBuffer buffer = arena.acquire(bytes);
+        try {
+            while (buffer.hasRemaining()) {
+                int read = Native.read(pipe.readFd(), buffer, buffer.remaining());
+                if (read == -1) {
+                    throw ErrnoException.of(Native.errno());
+                }
+                if (read == 0) {
+                    throw new EOFException("The pipe is drained before " + bytes + " bytes are read.");
+                }
+                buffer.position(buffer.position() + read);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                dst.write(buffer, position + buffer.position());
+            }
+        } finally {
+            arena.release(buffer);
+        }
+    }
+
+    private long copyTo(FileChannel dst, long position, long count) throws IOException {
+        BufferArena arena = BufferArena.getInstance();
+        ByteBuffer buffer = arena.acquire(TRANSFER_BUFFER_SIZE);
+        long total = 0L;
+        try {
+            while (total < count) {
+                int length = (int) Math.min(count - total, TRANSFER_BUFFER_SIZE);
+                buffer.clear().limit(length);
+                int read = read(buffer);
+                if (read == -1) {
+                    return (total == 0L) ? -1L : total;
+                }
+                if (read == 0) {
+                    break;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    total += dst.write(buffer, position + total);
+                }
+                // The next read would block in blocking mode if the socket buffer is just emptied.
+                if (read < length || isBlocking()) {
+                    break;
+                }
+            }
+        } finally {
+            arena.release(buffer);
+        }
+        return total;
+    }
+
+    private static void checkTransferArguments(FileChannel file, long position, long count) {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        if (position < 0L || count < 0L) {
+            throw new IllegalArgumentException("The position and count must not be negative.");
+        }
+    }
 }
@@ -0,0 +1,20 @@
+package net.ihiroky.uds4j;
+
+/**
+ * Signals that the peer resets the connection (ECONNRESET).
+ *
+ * This exception has no stack trace, so it is cheap to construct.
+ */
+public final class ConnectionResetException extends ErrnoException {
+
+    private static final long serialVersionUID = -4410263075981147735L;
+
+    ConnectionResetException() {
+        super(Native.ECONNRESET, "Connection reset by peer");
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
+    }
+}
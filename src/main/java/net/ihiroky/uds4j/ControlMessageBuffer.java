@@ -0,0 +1,236 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable buffer of the control messages (ancillary data) sent and received with a payload,
+ * which holds the file descriptors passed by SCM_RIGHTS, and the credentials of the sender
+ * received as SCM_CREDENTIALS.
+ *
+ * To send file descriptors, add them to this buffer and pass it to
+ * {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#write(java.nio.ByteBuffer, ControlMessageBuffer)} or
+ * {@link net.ihiroky.uds4j.DatagramUnixDomainChannel#send(java.nio.ByteBuffer, java.net.SocketAddress,
+ * ControlMessageBuffer)}. The file descriptors are duplicated into the receiver, so the sender still owns them.
+ * A stream socket must send at least one byte of payload with the file descriptors. Close a channel passed
+ * to the receiver by {@link net.ihiroky.uds4j.AbstractChannel#closeWithoutShutdown()}, or the socket is
+ * shutdown for the receiver too.
+ *
+ * To receive file descriptors, pass this buffer to
+ * {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#read(java.nio.ByteBuffer, ControlMessageBuffer)} or
+ * {@link net.ihiroky.uds4j.DatagramUnixDomainChannel#receive(java.nio.ByteBuffer, ControlMessageBuffer)}.
+ * The received file descriptors are owned by the caller, and have FD_CLOEXEC set. The file descriptors
+ * which don't fit into this buffer are closed and reported by {@link #isTruncated()}. If
+ * {@link net.ihiroky.uds4j.SocketOptions#SO_PASSCRED} is enabled on the receiving channel, the credentials
+ * of the sender are received with each message and returned by {@link #credentials()}.
+ *
+ * This class is not thread safe.
+ */
+public final class ControlMessageBuffer {
+
+    private final int[] fds_;
+    private final Memory control_;
+    private final ByteBuffer controlBuffer_;
+    private int count_;
+    private boolean truncated_;
+    private Credentials credentials_;
+    private boolean credentialsReceived_;
+
+    /** The default maximum number of the file descriptors. */
+    public static final int DEFAULT_MAX_FILE_DESCRIPTORS = 16;
+
+    private static final int FD_BYTES = Integer.SIZE / Byte.SIZE;
+
+    /**
+     * Constructs a new instance which holds {@link #DEFAULT_MAX_FILE_DESCRIPTORS} file descriptors at most.
+     */
+    public ControlMessageBuffer() {
+        this(DEFAULT_MAX_FILE_DESCRIPTORS);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param maxFileDescriptors the maximum number of the file descriptors, which must be in [1, 253]
+     */
+    public ControlMessageBuffer(int maxFileDescriptors) {
+        if (maxFileDescriptors <= 0 || maxFileDescriptors > Native.SCM_MAX_FD) {
+            throw new IllegalArgumentException("The maxFileDescriptors must be in [1, " + Native.SCM_MAX_FD + "].");
+        }
+        int capacity = Native.cmsgSpace(maxFileDescriptors * FD_BYTES) + Native.cmsgSpace(Native.UCRED_SIZE);
+        fds_ = new int[maxFileDescriptors];
+        control_ = new Memory(capacity);
+        controlBuffer_ = control_.getByteBuffer(0, capacity).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Adds the file descriptor to be sent.
+     *
+     * @param fd the file descriptor
+     * @return this buffer
+     * @throws java.nio.BufferOverflowException if this buffer is full
+     */
+    public ControlMessageBuffer add(int fd) {
+        if (fd < 0) {
+            throw new IllegalArgumentException("Invalid file descriptor: " + fd);
+        }
+        if (count_ == fds_.length) {
+            throw new BufferOverflowException();
+        }
+        fds_[count_++] = fd;
+        return this;
+    }
+
+    /**
+     * Adds the file descriptor of the channel to be sent.
+     *
+     * @param channel the channel
+     * @return this buffer
+     * @throws java.nio.BufferOverflowException if this buffer is full
+     */
+    public ControlMessageBuffer add(AbstractChannel channel) {
+        return add(channel.fd_);
+    }
+
+    /**
+     * Returns the number of the file descriptors in this buffer.
+     *
+     * @return the number of the file descriptors in this buffer
+     */
+    public int count() {
+        return count_;
+    }
+
+    /**
+     * Returns the file descriptor at the index.
+     *
+     * @param index the index
+     * @return the file descriptor
+     * @throws java.lang.IndexOutOfBoundsException if the index is not less than {@link #count()}
+     */
+    public int get(int index) {
+        if (index < 0 || index >= count_) {
+            throw new IndexOutOfBoundsException("index: " + index + ", count: " + count_);
+        }
+        return fds_[index];
+    }
+
+    /**
+     * Returns true if the last receive operation discarded some control messages
+     * because this buffer is too small.
+     *
+     * @return true if some control messages are discarded
+     */
+    public boolean isTruncated() {
+        return truncated_;
+    }
+
+    /**
+     * Returns the credentials of the sender received by the last receive operation.
+     *
+     * @return the credentials of the sender, or null if they are not received
+     */
+    public Credentials credentials() {
+        return credentialsReceived_ ? credentials_ : null;
+    }
+
+    /**
+     * Removes the file descriptors and the credentials from this buffer without closing the file descriptors.
+     */
+    public void clear() {
+        count_ = 0;
+        truncated_ = false;
+        credentialsReceived_ = false;
+    }
+
+    /**
+     * Closes the file descriptors in this buffer and removes them, for example to discard
+     * the received ones which are not used.
+     */
+    public void closeAll() {
+        for (int i = 0; i < count_; i++) {
+            Native.close(fds_[i]);
+        }
+        clear();
+    }
+
+    Pointer pointer() {
+        return control_;
+    }
+
+    int capacity() {
+        return (int) control_.size();
+    }
+
+    /**
+     * Writes the control messages for the file descriptors in this buffer.
+     *
+     * @return the length of the control messages, or 0 if no file descriptor is added
+     */
+    int prepareSend() {
+        if (count_ == 0) {
+            return 0;
+        }
+        ByteBuffer b = controlBuffer_;
+        int length = count_ * FD_BYTES;
+        b.putLong(Native.CMSGHDR_LEN_OFFSET, Native.cmsgLen(length));
+        b.putInt(Native.CMSGHDR_LEVEL_OFFSET, Native.SOL_SOCKET);
+        b.putInt(Native.CMSGHDR_TYPE_OFFSET, Native.SCM_RIGHTS);
+        for (int i = 0; i < count_; i++) {
+            b.putInt(Native.CMSGHDR_SIZE + i * FD_BYTES, fds_[i]);
+        }
+        return Native.cmsgSpace(length);
+    }
+
+    /**
+     * Reads the control messages received by recvmsg into this buffer.
+     *
+     * @param length the length of the control messages set by recvmsg
+     * @param flags the flags set by recvmsg
+     */
+    void parseReceived(int length, int flags) {
+        clear();
+        ByteBuffer b = controlBuffer_;
+        int offset = 0;
+        while (offset + Native.CMSGHDR_SIZE <= length) {
+            int cmsgLength = (int) b.getLong(offset + Native.CMSGHDR_LEN_OFFSET);
+            if (cmsgLength < Native.CMSGHDR_SIZE || offset + cmsgLength > length) {
+                break;
+            }
+            int type = b.getInt(offset + Native.CMSGHDR_TYPE_OFFSET);
+            if (b.getInt(offset + Native.CMSGHDR_LEVEL_OFFSET) != Native.SOL_SOCKET) {
+                type = -1;
+            }
+            int data = offset + Native.CMSGHDR_SIZE;
+            if (type == Native.SCM_RIGHTS) {
+                int n = (cmsgLength - Native.CMSGHDR_SIZE) / FD_BYTES;
+                for (int i = 0; i < n; i++) {
+                    int fd = b.getInt(data + i * FD_BYTES);
+                    if (count_ < fds_.length) {
+                        fds_[count_++] = fd;
+                    } else {
+                        Native.close(fd);
+                        truncated_ = true;
+                    }
+                }
+            } else if (type == Native.SCM_CREDENTIALS && cmsgLength >= Native.cmsgLen(Native.UCRED_SIZE)) {
+                int pid = b.getInt(data + Native.UCRED_PID_OFFSET);
+                int uid = b.getInt(data + Native.UCRED_UID_OFFSET);
+                int gid = b.getInt(data + Native.UCRED_GID_OFFSET);
+                // Most messages come from the same sender, so the last instance is reused.
+                if (credentials_ == null || !credentials_.equals(pid, uid, gid)) {
+                    credentials_ = new Credentials(pid, uid, gid);
+                }
+                credentialsReceived_ = true;
+            }
+            offset += Native.cmsgAlign(cmsgLength);
+        }
+        if ((flags & Native.MSG_CTRUNC) != 0) {
+            truncated_ = true;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package net.ihiroky.uds4j;
+
+/**
+ * The credentials of a process (struct ucred), which are obtained by SO_PEERCRED or
+ * received as SCM_CREDENTIALS. The values are checked by the kernel, so they can be used
+ * to authenticate the peer without any handshake.
+ */
+public final class Credentials {
+
+    private final int pid_;
+    private final int uid_;
+    private final int gid_;
+
+    /**
+     * Constructs a new instance.
+     * @param pid the process id
+     * @param uid the user id
+     * @param gid the group id
+     */
+    public Credentials(int pid, int uid, int gid) {
+        pid_ = pid;
+        uid_ = uid;
+        gid_ = gid;
+    }
+
+    /**
+     * Returns the process id.
+     * @return the process id
+     */
+    public int pid() {
+        return pid_;
+    }
+
+    /**
+     * Returns the user id.
+     * @return the user id
+     */
+    public int uid() {
+        return uid_;
+    }
+
+    /**
+     * Returns the group id.
+     * @return the group id
+     */
+    public int gid() {
+        return gid_;
+    }
+
+    boolean equals(int pid, int uid, int gid) {
+        return pid_ == pid && uid_ == uid && gid_ == gid;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Credentials)) {
+            return false;
+        }
+        Credentials that = (Credentials) o;
+        return equals(that.pid_, that.uid_, that.gid_);
+    }
+
+    @Override
+    public int hashCode() {
+        return (pid_ * 31 + uid_) * 31 + gid_;
+    }
+
+    @Override
+    public String toString() {
+        return "{pid:" + pid_ + ", uid:" + uid_ + ", gid:" + gid_ + "}";
+    }
+}
@@ -0,0 +1,322 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A reusable set of the datagrams sent by {@link net.ihiroky.uds4j.DatagramUnixDomainChannel#sendBatch}
+ * and received by {@link net.ihiroky.uds4j.DatagramUnixDomainChannel#receiveBatch(DatagramBatch)} with
+ * a sendmmsg/recvmmsg call.
+ *
+ * Each datagram has a pooled direct buffer and a slot of the address. The mmsghdr array, the iovec array
+ * and the addresses are held in a single native memory block, which is written in place for each call.
+ * A target address is encoded once by {@link #setAddress(int, java.net.SocketAddress)}, and a source address
+ * is decoded only when {@link #address(int)} is called. A receive operation clears the target addresses.
+ *
+ * The buffers must be returned to the pool by {@link #close()}. This class is not thread safe.
+ */
+public final class DatagramBatch {
+
+    private final ByteBuffer[] buffers_;
+    private final long[] bufferAddresses_;
+    private final int[] nameLengths_;
+    private final int messageSize_;
+    private final Memory memory_;
+    private final long memoryAddress_;
+    private final Pointer[] messages_;
+    private final ByteBuffer table_;
+    private final long iovOffset_;
+    private final long nameOffset_;
+    private final BufferArena arena_;
+    private int size_;
+    private boolean closed_;
+
+    // The size of the slot of sockaddr_un, aligned to 8 bytes.
+    private static final int NAME_SIZE = (Native.SOCKADDR_UN_SIZE + 7) & ~7;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param capacity the maximum number of the datagrams in a batch
+     * @param messageSize the maximum size of a datagram
+     * @throws net.ihiroky.uds4j.OutOfNativeMemoryException if the buffers for the datagrams can't be allocated
+     */
+    public DatagramBatch(int capacity, int messageSize) throws OutOfNativeMemoryException {
+        if (capacity <= 0 || capacity > Native.IOV_MAX) {
+            throw new IllegalArgumentException("The capacity must be in [1, " + Native.IOV_MAX + "].");
+        }
+        if (messageSize <= 0 || messageSize > SlabBufferPool.MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException(
+                    "The messageSize must be in [1, " + SlabBufferPool.MAX_BUFFER_SIZE + "].");
+        }
+        arena_ = BufferArena.getInstance();
+        buffers_ = new ByteBuffer[capacity];
+        bufferAddresses_ = new long[capacity];
+        nameLengths_ = new int[capacity];
+        messageSize_ = messageSize;
+        messages_ = new Pointer[capacity];
+        boolean initialized = false;
+        try {
+            for (int i = 0; i < capacity; i++) {
+                ByteBuffer buffer = arena_.acquire(messageSize);
+                buffers_[i] = buffer;
+                bufferAddresses_[i] = Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(buffer));
+            }
+
+            iovOffset_ = (long) capacity * Native.MMSGHDR_SIZE;
+            nameOffset_ = iovOffset_ + (long) capacity * Native.IOVEC_SIZE;
+            memory_ = new Memory(nameOffset_ + (long) capacity * NAME_SIZE);
+            memory_.clear();
+            memoryAddress_ = Pointer.nativeValue(memory_);
+            messages_[0] = memory_;
+            table_ = memory_.getByteBuffer(0, memory_.size()).order(ByteOrder.nativeOrder());
+            long base = memoryAddress_;
+            for (int i = 0; i < capacity; i++) {
+                int header = i * Native.MMSGHDR_SIZE;
+                table_.putLong(header + Native.MSGHDR_IOV_OFFSET, base + iovOffset_ + (long) i * Native.IOVEC_SIZE);
+                table_.putLong(header + Native.MSGHDR_IOVLEN_OFFSET, 1L);
+            }
+            initialized = true;
+        } finally {
+            // Return the buffers acquired so far if an allocation fails; the exception is rethrown.
+            if (!initialized) {
+                releaseBuffers();
+            }
+        }
+    }
+
+    /**
+     * Returns the maximum number of the datagrams in a batch.
+     *
+     * @return the maximum number of the datagrams in a batch
+     */
+    public int capacity() {
+        return buffers_.length;
+    }
+
+    /**
+     * Returns the number of the datagrams received by the last receive operation.
+     *
+     * @return the number of the datagrams received
+     */
+    public int size() {
+        return size_;
+    }
+
+    /**
+     * Returns the buffer of the datagram at the index. After a receive operation, the buffer holds
+     * the received datagram between its position and limit. To send a datagram, put it into the buffer
+     * and flip the buffer.
+     *
+     * @param index the index
+     * @return the buffer of the datagram
+     */
+    public ByteBuffer buffer(int index) {
+        return buffers_[index];
+    }
+
+    /**
+     * Sets the address to which the datagram at the index is sent.
+     *
+     * @param index the index
+     * @param target the address, or null to send to the connected peer
+     */
+    public void setAddress(int index, SocketAddress target) {
+        if (index < 0 || index >= buffers_.length) {
+            throw new IndexOutOfBoundsException("index: " + index);
+        }
+        if (target == null) {
+            nameLengths_[index] = 0;
+            return;
+        }
+        byte[] path = ((UnixDomainSocketAddress) target).getPath();
+        int sunPathLength = Native.SOCKADDR_UN_SIZE - Native.SockAddrUn.SUN_PATH_OFFSET;
+        if (path.length >= sunPathLength) {
+            throw new IllegalArgumentException(
+                    "The length of the path must be less than " + sunPathLength + " as byte.");
+        }
+        int offset = nameOffset(index);
+        table_.putShort(offset, (short) Native.AF_UNIX);
+        for (int i = 0; i < path.length; i++) {
+            table_.put(offset + Native.SockAddrUn.SUN_PATH_OFFSET + i, path[i]);
+        }
+        table_.put(offset + Native.SockAddrUn.SUN_PATH_OFFSET + path.length, (byte) 0);
+        nameLengths_[index] = Native.SockAddrUn.SUN_PATH_OFFSET + path.length + 1;
+    }
+
+    /**
+     * Returns the source address of the datagram at the index received by the last receive operation.
+     *
+     * @param index the index
+     * @return the source address, or null if the sender is not bound to any path
+     */
+    public SocketAddress address(int index) {
+        if (index < 0 || index >= size_) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size_);
+        }
+        int nameLength = table_.getInt(index * Native.MMSGHDR_SIZE + Native.MSGHDR_NAMELEN_OFFSET);
+        int offset = nameOffset(index) + Native.SockAddrUn.SUN_PATH_OFFSET;
+        int end = nameOffset(index) + Math.min(nameLength, Native.SOCKADDR_UN_SIZE);
+        int length = 0;
+        while (offset + length < end && table_.get(offset + length) != 0) {
+            length++;
+        }
+        if (length == 0) {
+            return null;
+        }
+        byte[] path = new byte[length];
+        for (int i = 0; i < length; i++) {
+            path[i] = table_.get(offset + i);
+        }
+        return new UnixDomainSocketAddress(new String(path, UnixDomainSocketAddress.DEFAULT_CHARSET));
+    }
+
+    /**
+     * Returns true if the datagram at the index received by the last receive operation is truncated
+     * because it is larger than the buffer.
+     *
+     * @param index the index
+     * @return true if the datagram is truncated
+     */
+    public boolean isTruncated(int index) {
+        if (index < 0 || index >= size_) {
+            throw new IndexOutOfBoundsException("index: " + index + ", size: " + size_);
+        }
+        return (table_.getInt(index * Native.MMSGHDR_SIZE + Native.MSGHDR_FLAGS_OFFSET) & Native.MSG_TRUNC) != 0;
+    }
+
+    /**
+     * Clears the buffers and the addresses to reuse this batch for sending.
+     */
+    public void clear() {
+        for (int i = 0; i < buffers_.length; i++) {
+            buffers_[i].clear().limit(messageSize_);
+            nameLengths_[i] = 0;
+        }
+        size_ = 0;
+    }
+
+    /**
+     * Returns the buffers to the pool. This batch must not be used after this call.
+     */
+    public void close() {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        releaseBuffers();
+        size_ = 0;
+    }
+
+    private void releaseBuffers() {
+        for (int i = 0; i < buffers_.length && buffers_[i] != null; i++) {
+            arena_.release(buffers_[i]);
+            buffers_[i] = null;
+        }
+    }
+
+    private int nameOffset(int index) {
+        return (int) nameOffset_ + index * NAME_SIZE;
+    }
+
+    private void setMessage(int index, int nameLength) {
+        ByteBuffer buffer = buffers_[index];
+        int header = index * Native.MMSGHDR_SIZE;
+        long nameAddress = (nameLength > 0) ? memoryAddress_ + nameOffset(index) : 0L;
+        table_.putLong(header + Native.MSGHDR_NAME_OFFSET, nameAddress);
+        table_.putInt(header + Native.MSGHDR_NAMELEN_OFFSET, nameLength);
+        table_.putInt(header + Native.MSGHDR_FLAGS_OFFSET, 0);
+        table_.putInt(header + Native.MMSGHDR_LEN_OFFSET, 0);
+
+        int iov = (int) iovOffset_ + index * Native.IOVEC_SIZE;
+        table_.putLong(iov + Native.IOVEC_BASE_OFFSET, bufferAddresses_[index] + buffer.position());
+        table_.putLong(iov + Native.IOVEC_LEN_OFFSET, buffer.remaining());
+    }
+
+    /**
+     * Checks that this batch is open and [offset, offset + length) is in this batch.
+     */
+    void checkRange(int offset, int length) {
+        checkOpen();
+        if (offset < 0 || length < 0 || offset + length > buffers_.length) {
+            throw new IndexOutOfBoundsException("offset: " + offset + ", length: " + length);
+        }
+    }
+
+    /**
+     * Returns true if all messages in [offset, offset + length) have the target addresses.
+     */
+    boolean hasAddresses(int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (nameLengths_[i] == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Sets up the messages in [offset, offset + length), which is checked by {@link #checkRange(int, int)},
+     * for sendmmsg.
+     *
+     * @return the address of the mmsghdr at the offset
+     */
+    Pointer prepareSend(int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            setMessage(i, nameLengths_[i]);
+        }
+        // Cache the pointer to the mmsghdr not to allocate it for each call.
+        Pointer message = messages_[offset];
+        if (message == null) {
+            message = memory_.share((long) offset * Native.MMSGHDR_SIZE);
+            messages_[offset] = message;
+        }
+        return message;
+    }
+
+    /**
+     * Advances the positions of the buffers of the messages sent by sendmmsg.
+     */
+    void completeSend(int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            ByteBuffer buffer = buffers_[i];
+            buffer.position(buffer.position() + table_.getInt(i * Native.MMSGHDR_SIZE + Native.MMSGHDR_LEN_OFFSET));
+        }
+    }
+
+    /**
+     * Clears the buffers and the addresses, and sets up all messages for recvmmsg.
+     *
+     * @return the address of the first mmsghdr
+     */
+    Pointer prepareReceive() {
+        checkOpen();
+        size_ = 0;
+        for (int i = 0; i < buffers_.length; i++) {
+            buffers_[i].clear().limit(messageSize_);
+            nameLengths_[i] = 0;
+            setMessage(i, Native.SOCKADDR_UN_SIZE);
+        }
+        return memory_;
+    }
+
+    /**
+     * Sets the limits of the buffers of the messages received by recvmmsg.
+     */
+    void completeReceive(int count) {
+        for (int i = 0; i < count; i++) {
+            buffers_[i].limit(table_.getInt(i * Native.MMSGHDR_SIZE + Native.MMSGHDR_LEN_OFFSET));
+        }
+        size_ = count;
+    }
+
+    private void checkOpen() {
+        if (closed_) {
+            throw new IllegalStateException("The batch is closed.");
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.Pointer;
+
 import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.ByteBuffer;
@@ -20,12 +22,16 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
 
     private UnixDomainSocketAddress remoteAddress_;
 
+    /** True if this channel is created by {@link #pair()}, connected to the other without any address. */
+    private final boolean paired_;
+
     private DatagramUnixDomainChannel(int fd) throws IOException {
-        this(fd, SelectionKey.OP_READ | SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT);
+        this(fd, SelectionKey.OP_READ | SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT, false);
     }
 
-    private DatagramUnixDomainChannel(int fd, int validOps) throws IOException {
+    private DatagramUnixDomainChannel(int fd, int validOps, boolean paired) throws IOException {
         super(fd, validOps);
+        paired_ = paired;
     }
 
     @Override
@@ -46,6 +52,11 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
         return true;
     }
 
+    @Override
+    boolean isStream() {
+        return false;
+    }
+
     /**
      * Opens a new channel.
      *
@@ -65,11 +76,13 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
      */
     public static DatagramUnixDomainChannel[] pair() throws IOException {
         int[] sockets = {-1, -1};
-        Native.socketpair(Native.AF_UNIX, Native.SOCK_DGRAM, Native.PROTOCOL, sockets);
+        if (Native.socketpair(Native.AF_UNIX, Native.SOCK_DGRAM, Native.PROTOCOL, sockets) == -1) {
+            throw ErrnoException.of(Native.errno());
+        }
         int ops = SelectionKey.OP_READ | SelectionKey.OP_WRITE;
         return new DatagramUnixDomainChannel[] {
-                new DatagramUnixDomainChannel(sockets[0], ops),
-                new DatagramUnixDomainChannel(sockets[1], ops)
+                new DatagramUnixDomainChannel(sockets[0], ops, true),
+                new DatagramUnixDomainChannel(sockets[1], ops, true)
         };
     }
 
@@ -103,7 +116,7 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
             sun.sunFamily_ = Native.AF_UNIX;
             sun.setSunPath(remoteAddress.getPath());
             if (Native.connect(fd_, sun, sun.size()) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             remoteAddress_ = (UnixDomainSocketAddress) remote;
         }
@@ -131,7 +144,7 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
             sun.sunFamily_ = Native.AF_UNSPEC;
             Arrays.fill(sun.sunPath_, (byte) 0);
             if (Native.connect(fd_, sun, sun.size()) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             remoteAddress_ = null;
         }
@@ -163,7 +176,7 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
                 Native.SockAddrUn sun = buffer.getAddress();
                 sun.sunFamily_ = Native.AF_UNIX;
                 if (Native.getpeername(fd_, sun, buffer.getSize()) == -1) {
-                    throw new IOException(Native.getLastError());
+                    throw ErrnoException.of(Native.errno());
                 }
                 remoteAddress_ = new UnixDomainSocketAddress(sun.getSunPath());
             }
@@ -187,7 +200,7 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
             sun.sunFamily_ = Native.AF_UNIX;
             sun.setSunPath(uds.getPath());
             if (Native.bind(fd_, sun, sun.size()) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             localAddress_ = uds;
         }
@@ -199,7 +212,8 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
      *
      * @param src the buffer containing the datagram to be sent
      * @param target the address to which the datagram is to be sent
-     * @return the number of bytes sent
+     * @return the number of bytes sent, or 0 if the datagram can not be sent without blocking
+     *         in non-blocking mode
      * @throws java.nio.channels.ClosedChannelException if this channel is closed
      * @throws java.io.IOException if an I/O error occurs
      */
@@ -225,7 +239,11 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
             end(sent > 0);
         }
         if (sent == -1) {
-            throw new IOException(Native.getLastError());
+            int errno = Native.errno();
+            if (errno == Native.EAGAIN) {
+                return 0;
+            }
+            throw ErrnoException.of(errno);
         }
         src.position(src.position() + sent);
         return sent;
@@ -257,13 +275,159 @@ public final class DatagramUnixDomainChannel extends ReadWriteUnixDomainChannel
             end(received > 0);
         }
         if (received == -1) {
-            if (Native.errno() == Native.EAGAIN) {
+            int errno = Native.errno();
+            if (errno == Native.EAGAIN) {
                 return null;
             }
-            throw new IOException(Native.getLastError());
+            throw ErrnoException.of(errno);
         }
         String sunPath = sun.getSunPath();
         dst.position(dst.position() + received);
         return received >= 0 ? new UnixDomainSocketAddress(sunPath) : null;
     }
+
+    /**
+     * Sends a datagram with the file descriptors in the control message buffer via this channel.
+     *
+     * @param src the buffer containing the datagram to be sent
+     * @param target the address to which the datagram is to be sent, or null to send it to the connected peer
+     * @param control the control message buffer holding the file descriptors to be sent
+     * @return the number of bytes sent, or 0 if the datagram can not be sent without blocking
+     *         in non-blocking mode
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int send(ByteBuffer src, SocketAddress target, ControlMessageBuffer control) throws IOException {
+        synchronized (stateLock_) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (target != null && isConnected() && !remoteAddress_.equals(target)) {
+                throw new IOException("The target is not equals to the connected address.");
+            }
+        }
+
+        Native.SockAddrUn sun = null;
+        if (target != null) {
+            sun = AddressBuffer.getInstance().getAddress();
+            sun.sunFamily_ = Native.AF_UNIX;
+            sun.setSunPath(((UnixDomainSocketAddress) target).getPath());
+        }
+        long sent = sendmsg(src, sun, control);
+        return (sent == -1L) ? 0 : (int) sent;
+    }
+
+    /**
+     * Receives a datagram and the file descriptors passed with it via this channel. The control message
+     * buffer is cleared, and then holds the received file descriptors. If
+     * {@link net.ihiroky.uds4j.SocketOptions#SO_PASSCRED} is enabled, it also holds the credentials of
+     * the sender of the datagram.
+     *
+     * @param dst the buffer into which the datagram is to be transferred
+     * @param control the control message buffer into which the file descriptors are to be transferred
+     * @return the source address of the datagram, or null if no datagram is available in non-blocking mode
+     *         or the sender is not bound to any path; the position of {@code dst} and the count of
+     *         {@code control} tell whether a datagram is received in the latter case
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public SocketAddress receive(ByteBuffer dst, ControlMessageBuffer control) throws IOException {
+        synchronized (stateLock_) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+        }
+
+        Native.SockAddrUn sun = AddressBuffer.getInstance().getAddress();
+        if (recvmsg(dst, sun, control) == -1L) {
+            return null;
+        }
+        String path = sun.getSunPath();
+        if (MessageHeader.getInstance().nameLength() <= Native.SockAddrUn.SUN_PATH_OFFSET || path.length() == 0) {
+            // The sender is not bound to any path.
+            return null;
+        }
+        return new UnixDomainSocketAddress(path);
+    }
+
+    /**
+     * Sends the datagrams in the batch by a sendmmsg call. Each datagram is the remaining bytes of
+     * {@link net.ihiroky.uds4j.DatagramBatch#buffer(int)}, sent to the address set by
+     * {@link net.ihiroky.uds4j.DatagramBatch#setAddress(int, java.net.SocketAddress)}. The positions of
+     * the buffers of the sent datagrams are advanced.
+     *
+     * @param batch the batch
+     * @param offset the index of the first datagram to be sent
+     * @param length the number of the datagrams to be sent
+     * @return the number of the datagrams sent, which may be less than {@code length},
+     *         or 0 if no datagram can be sent without blocking in non-blocking mode
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.nio.channels.NotYetConnectedException if a datagram has no address and this channel
+     *         is not connected
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int sendBatch(DatagramBatch batch, int offset, int length) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        batch.checkRange(offset, length);
+        if (length == 0) {
+            return 0;
+        }
+        if (!paired_ && !batch.hasAddresses(offset, length) && !isConnected()) {
+            throw new NotYetConnectedException();
+        }
+        Pointer msgvec = batch.prepareSend(offset, length);
+        int sent = 0;
+        try {
+            begin();
+            sent = Native.sendmmsg(fd_, msgvec, length, 0);
+            if (sent == -1) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    sent = 0;
+                    return 0;
+                }
+                throw ErrnoException.of(errno);
+            }
+        } finally {
+            end(sent > 0);
+        }
+        batch.completeSend(offset, sent);
+        return sent;
+    }
+
+    /**
+     * Receives the datagrams into the batch by a recvmmsg call, up to the capacity of the batch.
+     * In blocking mode, this method blocks until a datagram is received, and then returns
+     * the datagrams received without blocking.
+     *
+     * @param batch the batch
+     * @return the number of the datagrams received, or 0 if no datagram is available in non-blocking mode
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int receiveBatch(DatagramBatch batch) throws IOException {
+        if (!isOpen()) {
+            throw new ClosedChannelException();
+        }
+        Pointer msgvec = batch.prepareReceive();
+        int received = 0;
+        try {
+            begin();
+            received = Native.recvmmsg(fd_, msgvec, batch.capacity(), Native.MSG_WAITFORONE, null);
+            if (received == -1) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    received = 0;
+                    return 0;
+                }
+                throw ErrnoException.of(errno);
+            }
+        } finally {
+            end(received > 0);
+        }
+        batch.completeReceive(received);
+        return received;
+    }
 }
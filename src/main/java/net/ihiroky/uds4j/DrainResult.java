@@ -0,0 +1,17 @@
+package net.ihiroky.uds4j;
+
+/**
+ * The result of {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#drain(java.nio.channels.SelectionKey,
+ * ReceiveBufferAllocator, ReceiveHandler, long, int)}.
+ */
+public enum DrainResult {
+
+    /** No more bytes are available in the channel. */
+    DRAINED,
+
+    /** The budget runs out before the channel is drained. */
+    BUDGET_EXHAUSTED,
+
+    /** The channel has reached end-of-stream. */
+    END_OF_STREAM,
+}
@@ -1,8 +1,11 @@
 package net.ihiroky.uds4j;
 
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectionKey;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * A token representing the registration of a {@link net.ihiroky.uds4j.AbstractChannel}
@@ -12,17 +15,44 @@ public class EPollSelectionKey extends AbstractSelectionKey {
 
     private final AbstractChannel channel_;
     private final EPollSelector selector_;
+    private volatile int flags_;
+    private volatile TriggerMode triggerMode_;
+    private volatile IOException error_;
     private volatile int readyOps_;
     private volatile int interestOps_;
+    private long epollData_;
+    private int installedEvents_;
+    private int selectedIndex_;
+    private volatile int updateQueued_;
+    private volatile int requeuedOps_;
 
     private transient int hashCode_;
 
     private static final int HASH_FACTOR = 31;
 
+    /** The index which represents the key is not in the selected key set. */
+    static final int NOT_SELECTED = -1;
+
+    private static final AtomicIntegerFieldUpdater<EPollSelectionKey> UPDATE_QUEUED_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(EPollSelectionKey.class, "updateQueued_");
+    private static final AtomicIntegerFieldUpdater<EPollSelectionKey> REQUEUED_OPS_UPDATER =
+            AtomicIntegerFieldUpdater.newUpdater(EPollSelectionKey.class, "requeuedOps_");
+
     EPollSelectionKey(AbstractChannel channel, EPollSelector selector, int interestOps) {
         channel_ = channel;
         selector_ = selector;
         interestOps_ = interestOps;
+        triggerMode_ = TriggerMode.DEFAULT;
+        epollData_ = SelectionKeyTable.NO_KEY;
+        selectedIndex_ = NOT_SELECTED;
+    }
+
+    /**
+     * Sets the flags and the trigger mode before this key is added to epoll.
+     */
+    void initialize(int flags, TriggerMode triggerMode) {
+        flags_ = flags;
+        triggerMode_ = triggerMode;
     }
 
     @Override
@@ -40,10 +70,25 @@ public class EPollSelectionKey extends AbstractSelectionKey {
         return interestOps_;
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * If the trigger mode of this key is {@link net.ihiroky.uds4j.TriggerMode#ONESHOT}, this method
+     * re-arms this key even if the interest set is not changed.
+     */
     @Override
     public EPollSelectionKey interestOps(int ops) {
+        if (!isValid()) {
+            throw new CancelledKeyException();
+        }
+        if ((ops & ~channel_.validOps()) != 0) {
+            throw new IllegalArgumentException("Invalid ops: " + ops);
+        }
+        if (ops == interestOps_ && triggerMode_ != TriggerMode.ONESHOT) {
+            return this;
+        }
         interestOps_ = ops;
-        selector_.register(channel_, ops, attachment());
+        selector_.updateInterestOps(this);
         return this;
     }
 
@@ -109,11 +154,125 @@ public class EPollSelectionKey extends AbstractSelectionKey {
         b.append(']');
     }
 
-    boolean isInterestedInRead() {
-        return (interestOps_ & SelectionKey.OP_READ) != 0;
+    int toReadyOps(int events) {
+        int interestOps = interestOps_;
+        int readyOps = 0;
+        if ((events & (Native.EPOLLIN | Native.EPOLLERR | Native.EPOLLHUP)) != 0) {
+            readyOps |= interestOps & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT);
+        }
+        if ((events & (Native.EPOLLOUT | Native.EPOLLERR | Native.EPOLLHUP)) != 0) {
+            readyOps |= interestOps & (SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT);
+        }
+        return readyOps;
     }
 
     void updateReadyOps(int readyOps) {
         readyOps_ = readyOps;
     }
+
+    long epollData() {
+        return epollData_;
+    }
+
+    void setEPollData(long data) {
+        epollData_ = data;
+    }
+
+    /**
+     * Returns the flags specified on the registration, such as {@link EPollSelector#EXCLUSIVE}.
+     * @return the flags
+     */
+    public int flags() {
+        return flags_;
+    }
+
+    /**
+     * Returns the trigger mode of this key.
+     * @return the trigger mode of this key
+     */
+    public TriggerMode triggerMode() {
+        return triggerMode_;
+    }
+
+    /**
+     * Sets the trigger mode of this key. The mode is applied to epoll before the next selection.
+     *
+     * @param mode the trigger mode
+     * @return this key
+     * @throws java.nio.channels.CancelledKeyException if this key has been cancelled
+     * @throws java.lang.IllegalArgumentException if the mode is not available with the flags of this key
+     */
+    public EPollSelectionKey triggerMode(TriggerMode mode) {
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        if (!isValid()) {
+            throw new CancelledKeyException();
+        }
+        EPollSelector.checkTriggerMode(flags_, mode);
+        if (mode == triggerMode_) {
+            return this;
+        }
+        triggerMode_ = mode;
+        selector_.updateInterestOps(this);
+        return this;
+    }
+
+    /**
+     * Returns the error which made the selector cancel this key, for example when epoll rejected
+     * to add or modify the events of the channel.
+     * @return the error, or null if this key is not cancelled by an error
+     */
+    public IOException error() {
+        return error_;
+    }
+
+    void setError(IOException error) {
+        error_ = error;
+    }
+
+    int installedEvents() {
+        return installedEvents_;
+    }
+
+    void setInstalledEvents(int events) {
+        installedEvents_ = events;
+    }
+
+    /**
+     * Marks this key as queued to update its events.
+     * @return true if this key is not queued yet
+     */
+    boolean markUpdateQueued() {
+        return UPDATE_QUEUED_UPDATER.compareAndSet(this, 0, 1);
+    }
+
+    void clearUpdateQueued() {
+        updateQueued_ = 0;
+    }
+
+    /**
+     * Adds the ops to be reported again by the next selection.
+     * @return true if this key is not requeued yet
+     */
+    boolean addRequeuedOps(int ops) {
+        for (;;) {
+            int current = requeuedOps_;
+            if (REQUEUED_OPS_UPDATER.compareAndSet(this, current, current | ops)) {
+                return current == 0;
+            }
+        }
+    }
+
+    int takeRequeuedOps() {
+        return REQUEUED_OPS_UPDATER.getAndSet(this, 0);
+    }
+
+    int selectedIndex() {
+        return selectedIndex_;
+    }
+
+    void setSelectedIndex(int index) {
+        selectedIndex_ = index;
+    }
 }
@@ -1,23 +1,31 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.Memory;
 import com.sun.jna.ptr.LongByReference;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.channels.CancelledKeyException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.nio.channels.spi.AbstractSelector;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A multiplexer of SelectableChannel objects. This is for Linux 2.6+ kernels
@@ -28,16 +36,38 @@ public final class EPollSelector extends AbstractSelector {
     private final int fd_;
     private final int eventFd_;
     private final Set<SelectionKey> keySet_;
-    private final Map<Integer, EPollSelectionKey> fdKeyMap_;
+    private final SelectionKeyTable keyTable_;
     private final SelectedKeySet selectedKeySet_;
+    private EPollSelectionKey[] fdKeys_;
+    private final Queue<EPollSelectionKey> updateQueue_;
+    private final Queue<EPollSelectionKey> requeueQueue_;
+    private EPollSelectionKey[] requeuedKeys_;
+    private int[] requeuedOps_;
     private final Object lock_;
+    private final Object wakeupLock_;
+    private volatile boolean selecting_;
+    private final AtomicBoolean wakenUp_;
+    private final AtomicLong ctlCount_;
+    private final AtomicLong ctlSuppressedCount_;
 
     private static Logger logger_ = LoggerFactory.getLogger(EPollSelector.class);
+
+    /**
+     * The flag to register the channel with EPOLLEXCLUSIVE.
+     * @see #register(AbstractChannel, int, Object, int)
+     */
+    public static final int EXCLUSIVE = Native.EPOLLEXCLUSIVE;
+
+    /** The installed events which never match the events of any key, to re-arm a fired oneshot key. */
+    private static final int DISARMED = -1;
     private static final int EVENT_BUFFER_SIZE = 1024; // TODO getrlimit RLIMIT_NOFILE
+    private static final int INITIAL_REQUEUE_CAPACITY = 16;
+    private static final int INITIAL_FD_CAPACITY = 64;
 
     private final Native.EPollEvent.ByReference tmpEvent_;
-    private final Native.EPollEvent eventsHead_;
-    private final Native.EPollEvent[] eventBuffer_;
+    private final Memory eventMemory_;
+    private final ByteBuffer eventBuffer_;
+    private final int eventBufferSize_;
     private final LongByReference eventFdBuffer_;
 
     private  EPollSelector(int eventBufferSize) throws IOException {
@@ -49,30 +79,42 @@ public final class EPollSelector extends AbstractSelector {
 
         int fd = Native.epoll_create(eventBufferSize);
         if (fd == -1) {
-            throw new IOException(Native.getLastError());
+            throw ErrnoException.of(Native.errno());
         }
         int evFd = Native.eventfd(0, Native.EFD_NONBLOCK);
         if (evFd == -1) {
-            throw new IOException(Native.getLastError());
+            ErrnoException e = ErrnoException.of(Native.errno());
+            Native.close(fd);
+            throw e;
         }
 
         Native.EPollEvent.ByReference tmpEvent =
-                new Native.EPollEvent.ByReference(evFd, Native.EPOLLIN | Native.EPOLLET);
-        Native.EPollEvent eventsHead = new Native.EPollEvent();
-        Native.EPollEvent[] eventBuffer = (Native.EPollEvent[]) eventsHead.toArray(eventBufferSize);
+                new Native.EPollEvent.ByReference(SelectionKeyTable.NO_KEY, Native.EPOLLIN | Native.EPOLLET);
+        Memory eventMemory = new Memory((long) eventBufferSize * Native.EPOLL_EVENT_SIZE);
+        ByteBuffer eventBuffer = eventMemory.getByteBuffer(0, eventMemory.size()).order(ByteOrder.nativeOrder());
         LongByReference eventFdBuffer = new LongByReference();
         Native.epoll_ctl(fd, Native.EPOLL_CTL_ADD, evFd, tmpEvent);
 
         fd_ = fd;
         eventFd_ = evFd;
         tmpEvent_ = tmpEvent;
-        eventsHead_ = eventsHead;
+        eventMemory_ = eventMemory;
         eventBuffer_ = eventBuffer;
+        eventBufferSize_ = eventBufferSize;
         eventFdBuffer_ = eventFdBuffer;
-        keySet_ = new HashSet<SelectionKey>();
-        fdKeyMap_ = new ConcurrentHashMap<Integer, EPollSelectionKey>();
+        keySet_ = Collections.newSetFromMap(new ConcurrentHashMap<SelectionKey, Boolean>());
+        keyTable_ = new SelectionKeyTable();
         selectedKeySet_ = new SelectedKeySet(eventBufferSize);
+        fdKeys_ = new EPollSelectionKey[INITIAL_FD_CAPACITY];
+        updateQueue_ = new ConcurrentLinkedQueue<EPollSelectionKey>();
+        requeueQueue_ = new ConcurrentLinkedQueue<EPollSelectionKey>();
+        requeuedKeys_ = new EPollSelectionKey[INITIAL_REQUEUE_CAPACITY];
+        requeuedOps_ = new int[INITIAL_REQUEUE_CAPACITY];
+        wakenUp_ = new AtomicBoolean();
+        ctlCount_ = new AtomicLong();
+        ctlSuppressedCount_ = new AtomicLong();
         lock_ = new Object();
+        wakeupLock_ = new Object();
     }
 
     /**
@@ -100,8 +142,18 @@ public final class EPollSelector extends AbstractSelector {
     @Override
     protected void implCloseSelector() throws IOException {
         synchronized (lock_) {
-            if (Native.close(fd_) == -1) {
-                throw new IOException(Native.getLastError());
+            int epollResult = Native.close(fd_);
+            int epollErrno = Native.errno();
+            int eventFdResult;
+            synchronized (wakeupLock_) {
+                // wakeup() must not write to the fd number which may be reused after here.
+                eventFdResult = Native.close(eventFd_);
+            }
+            if (epollResult == -1) {
+                throw ErrnoException.of(epollErrno);
+            }
+            if (eventFdResult == -1) {
+                throw ErrnoException.of(Native.errno());
             }
         }
     }
@@ -112,70 +164,257 @@ public final class EPollSelector extends AbstractSelector {
         AbstractChannel channel = (AbstractChannel) ch;
         EPollSelectionKey key = new EPollSelectionKey(channel, this, ops);
         key.attach(att);
+        keySet_.add(key);
+        enqueueUpdate(key);
+        return key;
+    }
+
+    /**
+     * Registers the channel to this selector with the flags.
+     *
+     * The flags can be specified only on the first registration of the channel to this selector.
+     * If {@link #EXCLUSIVE} is specified, the channel can be registered to multiple selectors
+     * with the flag, and only one of them is woken up when the channel gets ready.
+     * This avoids the thundering herd on a listening channel shared by some selectors.
+     *
+     * @param channel the channel
+     * @param ops the interest set of the key
+     * @param att the attachment of the key
+     * @param flags the flags
+     * @return the key
+     * @throws java.nio.channels.ClosedChannelException if the channel is closed
+     * @throws java.lang.IllegalStateException if the channel is already registered to this selector
+     */
+    public EPollSelectionKey register(
+            AbstractChannel channel, int ops, Object att, int flags) throws ClosedChannelException {
+        return register(channel, ops, att, flags, TriggerMode.DEFAULT);
+    }
+
+    /**
+     * Registers the channel to this selector with the trigger mode.
+     *
+     * @param channel the channel
+     * @param ops the interest set of the key
+     * @param att the attachment of the key
+     * @param mode the trigger mode
+     * @return the key
+     * @throws java.nio.channels.ClosedChannelException if the channel is closed
+     * @throws java.lang.IllegalStateException if the channel is already registered to this selector
+     */
+    public EPollSelectionKey register(
+            AbstractChannel channel, int ops, Object att, TriggerMode mode) throws ClosedChannelException {
+        return register(channel, ops, att, 0, mode);
+    }
+
+    /**
+     * Registers the channel to this selector with the flags and the trigger mode.
+     * {@link #EXCLUSIVE} can't be used with {@link net.ihiroky.uds4j.TriggerMode#ONESHOT}.
+     *
+     * The channel is added to epoll by the next selection. If epoll rejects it, the key is cancelled,
+     * and the error is available from {@link EPollSelectionKey#error()}.
+     *
+     * @param channel the channel
+     * @param ops the interest set of the key
+     * @param att the attachment of the key
+     * @param flags the flags
+     * @param mode the trigger mode
+     * @return the key
+     * @throws java.nio.channels.ClosedChannelException if the channel is closed
+     * @throws java.lang.IllegalStateException if the channel is already registered to this selector
+     * @see #register(AbstractChannel, int, Object, int)
+     */
+    public EPollSelectionKey register(AbstractChannel channel, int ops, Object att, int flags, TriggerMode mode)
+            throws ClosedChannelException {
+        if ((flags & ~EXCLUSIVE) != 0) {
+            throw new IllegalArgumentException("Invalid flags: " + flags);
+        }
+        if (mode == null) {
+            throw new NullPointerException("mode");
+        }
+        checkTriggerMode(flags, mode);
+        if ((ops & ~channel.validOps()) != 0) {
+            throw new IllegalArgumentException("Invalid ops: " + ops);
+        }
+        if (channel.keyFor(this) != null) {
+            throw new IllegalStateException("The channel is already registered.");
+        }
 
-        int events = 0;
-        if ((ops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ)) != 0) {
-            events |= (Native.EPOLLIN | Native.EPOLLET);
+        // The key without the interest ops is not added to epoll, so the flags can be set before it's added.
+        EPollSelectionKey key = (EPollSelectionKey) channel.register(this, 0, att);
+        key.initialize(flags, mode);
+        if (ops != 0) {
+            key.interestOps(ops);
         }
-        if ((ops & SelectionKey.OP_CONNECT) != 0) {
-            events |= Native.EPOLLOUT;
+        return key;
+    }
+
+    static void checkTriggerMode(int flags, TriggerMode mode) {
+        if ((flags & EXCLUSIVE) != 0 && mode == TriggerMode.ONESHOT) {
+            throw new IllegalArgumentException("ONESHOT can't be used with EXCLUSIVE.");
         }
-        if ((ops & SelectionKey.OP_WRITE) != 0) {
-            events |= (Native.EPOLLOUT | Native.EPOLLET);
+    }
+
+    void updateInterestOps(EPollSelectionKey key) {
+        enqueueUpdate(key);
+    }
+
+    /**
+     * Enqueues the key to be registered to epoll, or to be modified its events by the selecting thread.
+     * The selector is woken up if it is blocked in epoll_wait().
+     */
+    private void enqueueUpdate(EPollSelectionKey key) {
+        // The key already queued is updated with its latest interest ops.
+        if (key.markUpdateQueued()) {
+            updateQueue_.offer(key);
+            if (selecting_) {
+                wakeup();
+            }
         }
+    }
 
-        synchronized (keySet_) {
-            Set<SelectionKey> cancelledKeySet = cancelledKeys();
-            synchronized (cancelledKeySet) {
-                if (cancelledKeySet.contains(key)) {
-                    throw new CancelledKeyException();
-                }
+    private void processUpdateQueue() {
+        Queue<EPollSelectionKey> updateQueue = updateQueue_;
+        EPollSelectionKey key;
+        while ((key = updateQueue.poll()) != null) {
+            // Clear the mark before reading the interest ops not to miss a following change.
+            key.clearUpdateQueued();
+            if (!key.isValid()) {
+                continue;
             }
 
+            int events = key.triggerMode().toEPollEvents(key.interestOps());
+            long data = key.epollData();
+            if (data == SelectionKeyTable.NO_KEY ? events == 0 : events == key.installedEvents()) {
+                ctlSuppressedCount_.incrementAndGet();
+                continue;
+            }
+
+            int fd = key.channel().fd_;
             Native.EPollEvent.ByReference ev = tmpEvent_;
             ev.clear();
-            ev.update(channel.fd_, events);
-            if (keySet_.contains(key)) {
-                if (events != 0) {
-                    if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_MOD, channel.fd_, ev) == -1) {
-                        throw new RuntimeException(Native.getLastError());
-                    }
-                    logger_.debug("[register] Mod the key: {}", key);
-                } else {
-                    remove(key);
+            if (data != SelectionKeyTable.NO_KEY && (key.flags() & EXCLUSIVE) != 0) {
+                // The events of the fd added with EPOLLEXCLUSIVE can't be modified. Add it again.
+                ev.update(data, 0);
+                ctlCount_.incrementAndGet();
+                int result = Native.epoll_ctl(fd_, Native.EPOLL_CTL_DEL, fd, ev);
+                if (fdKeys_[fd] == key) {
+                    fdKeys_[fd] = null;
+                }
+                if (result == -1) {
+                    fail(key, "del");
+                    continue;
+                }
+                keyTable_.remove(key);
+                data = SelectionKeyTable.NO_KEY;
+            }
+            if (data == SelectionKeyTable.NO_KEY) {
+                ev.update(keyTable_.add(key), events | key.flags());
+                ctlCount_.incrementAndGet();
+                if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_ADD, fd, ev) == -1) {
+                    keyTable_.remove(key);
+                    fail(key, "add");
+                    continue;
                 }
+                setFdKey(fd, key);
+                logger_.debug("[processUpdateQueue] Add new key: {}", key);
             } else {
-                int cfd = channel.fd_;
-                if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_ADD, cfd, ev) == -1) {
-                    throw new RuntimeException(Native.getLastError());
+                ev.update(data, events);
+                ctlCount_.incrementAndGet();
+                if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_MOD, fd, ev) == -1) {
+                    fail(key, "mod");
+                    continue;
                 }
-                keySet_.add(key);
-                fdKeyMap_.put(cfd, key);
-                logger_.debug("[register] Add new key: {}", key);
+                logger_.debug("[processUpdateQueue] Mod the key: {}", key);
             }
+            key.setInstalledEvents(events);
         }
+    }
 
-        return key;
+    /**
+     * Records the error of epoll_ctl() on the key, and cancels the key.
+     */
+    private static void fail(EPollSelectionKey key, String op) {
+        ErrnoException error = ErrnoException.of(Native.errno());
+        logger_.warn("[processUpdateQueue] Failed to " + op + " the key: " + key, error);
+        key.setError(error);
+        key.cancel();
+    }
+
+    /**
+     * Requeues the key to be reported again by the next selection with the ops, without waiting
+     * for epoll. This lets a handler in edge-triggered mode stop handling a ready channel before
+     * it gets unready, for example when a budget runs out, and continue in the next selection.
+     * The next selection does not block if some keys are requeued.
+     *
+     * @param key the key
+     * @param ops the ops reported as ready; the ops not in the interest set are ignored
+     */
+    public void requeue(EPollSelectionKey key, int ops) {
+        if (key.selector() != this) {
+            throw new IllegalArgumentException("The key is not registered to this selector.");
+        }
+        if (ops != 0 && key.addRequeuedOps(ops)) {
+            requeueQueue_.offer(key);
+            if (selecting_) {
+                wakeup();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of epoll_ctl() calls issued by this selector.
+     * @return the number of epoll_ctl() calls issued by this selector
+     */
+    public long getEPollCtlCount() {
+        return ctlCount_.get();
+    }
+
+    /**
+     * Returns the number of epoll_ctl() calls suppressed by this selector
+     * because the events of the key were not changed.
+     * @return the number of epoll_ctl() calls suppressed by this selector
+     */
+    public long getSuppressedEPollCtlCount() {
+        return ctlSuppressedCount_.get();
     }
 
     private void remove(EPollSelectionKey key) {
 
-        // Precondition: synchronized by keySet_
+        // Precondition: called by the selecting thread
 
+        long data = key.epollData();
         int fd = key.channel().fd_;
-        Native.EPollEvent.ByReference ev = tmpEvent_;
-        ev.clear();
-        ev.update(fd, 0);
-        if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_DEL, fd, ev) == -1) {
-            throw new RuntimeException(Native.getLastError());
+        // If the channel is closed, its fd may be reused by a channel registered later. Then epoll has
+        // already dropped the closed one, and EPOLL_CTL_DEL would remove the registration of the new one.
+        if (data != SelectionKeyTable.NO_KEY && fd < fdKeys_.length && fdKeys_[fd] == key) {
+            fdKeys_[fd] = null;
+            Native.EPollEvent.ByReference ev = tmpEvent_;
+            ev.clear();
+            ev.update(data, 0);
+            ctlCount_.incrementAndGet();
+            if (Native.epoll_ctl(fd_, Native.EPOLL_CTL_DEL, fd, ev) == -1) {
+                // The fd is removed from epoll automatically if the channel is already closed.
+                int errno = Native.errno();
+                if (errno != Native.EBADF && errno != Native.ENOENT) {
+                    throw new RuntimeException(ErrnoException.of(errno));
+                }
+            }
         }
 
         deregister(key);
-        fdKeyMap_.remove(fd);
+        keyTable_.remove(key);
         keySet_.remove(key);
+        selectedKeySet_.remove(key);
         logger_.debug("[remove] Remove the key: {}", key);
     }
 
+    private void setFdKey(int fd, EPollSelectionKey key) {
+        if (fd >= fdKeys_.length) {
+            fdKeys_ = Arrays.copyOf(fdKeys_, Math.max(fdKeys_.length << 1, fd + 1));
+        }
+        fdKeys_[fd] = key;
+    }
+
     @Override
     public Set<SelectionKey> keys() {
         if (!isOpen()) {
@@ -194,69 +433,144 @@ public final class EPollSelector extends AbstractSelector {
         return selectedKeySet_;
     }
 
-    private int poll(int timeout) throws IOException {
+    private int poll(int timeout, ReadyKeyHandler handler) throws IOException {
         synchronized (lock_) {
             if (!isOpen()) {
                 throw new ClosedSelectorException();
             }
-            synchronized (keySet_) {
-                synchronized (selectedKeySet_) {
-                    processCancelledKeys();
 
-                    int count;
-                    try {
-                        begin();
-                        count = Native.epoll_wait(fd_, eventsHead_.getPointer(), eventBuffer_.length, timeout);
-                    } finally {
-                        end();
-                    }
-
-                    return updateSelectedKeys(count);
+            // The update queue must be processed after selecting_ is set
+            // so that enqueueUpdate() wakes up this selector if the queue is not processed.
+            // The cancelled keys are removed first, so a channel which reuses the fd of a closed channel
+            // is added after the closed one is deleted.
+            selecting_ = true;
+            int count;
+            try {
+                processCancelledKeys();
+                processUpdateQueue();
+                if (!requeueQueue_.isEmpty()) {
+                    timeout = 0;
                 }
+                begin();
+                count = Native.epoll_wait(fd_, eventMemory_, eventBufferSize_, timeout);
+            } finally {
+                selecting_ = false;
+                end();
+            }
+
+            // Drain the eventfd before clearing the flag. If the flag were cleared first, the eventfd written by
+            // wakeup() in between would be drained here, and the next selection would block without any wakeup.
+            if (wakenUp_.get()) {
+                drainEventFd();
+                wakenUp_.set(false);
+            }
+
+            // Take the keys requeued so far. The keys requeued by the handler are reported by the next selection.
+            int requeued = requeueQueue_.isEmpty() ? 0 : takeRequeuedKeys();
+            int selected = updateSelectedKeys(count, handler);
+            if (requeued > 0) {
+                selected += updateRequeuedKeys(requeued, handler);
             }
+            return selected;
         }
     }
 
     private void processCancelledKeys() throws IOException {
         Set<SelectionKey> cancelledKeys = cancelledKeys();
         synchronized (cancelledKeys) {
-            Set<SelectionKey> keySet = keySet_;
             for (Iterator<SelectionKey> i = cancelledKeys.iterator(); i.hasNext();) {
                 SelectionKey key = i.next();
-                if (keySet.contains(key)) {
-                    remove((EPollSelectionKey) key);
-                }
+                remove((EPollSelectionKey) key);
+                i.remove();
+            }
+        }
+    }
+
+    private void drainEventFd() throws IOException {
+        if (Native.eventfd_read(eventFd_, eventFdBuffer_) == -1) {
+            // EAGAIN if wakeup() has not written to the eventfd yet; then the next selection returns at once.
+            int errno = Native.errno();
+            if (errno != Native.EAGAIN) {
+                throw ErrnoException.of(errno);
             }
         }
     }
 
-    private int updateSelectedKeys(int count) throws IOException {
+    private int updateSelectedKeys(int count, ReadyKeyHandler handler) throws IOException {
         SelectedKeySet selectedKeySet = selectedKeySet_;
-        int eventFd = eventFd_;
+        ByteBuffer eventBuffer = eventBuffer_;
         int selected = 0;
         for (int i = 0; i < count; i++) {
-            Native.EPollEvent event = new Native.EPollEvent(eventBuffer_[i].getPointer());
-            int fd = event.data_.fd_;
-            if (fd == eventFd) {
-                logger_.debug("[updateSelectedKeys] Poll event fd: {}", fd);
-                if (Native.eventfd_read(fd, eventFdBuffer_) == 0) {
-                    continue;
-                }
-                // Assume that the errno is set.
-                throw new IOException(Native.getLastError());
+            // Decode struct epoll_event directly to avoid creating a Structure for each event.
+            int offset = i * Native.EPOLL_EVENT_SIZE;
+            long data = eventBuffer.getLong(offset + Native.EPOLL_EVENT_DATA_OFFSET);
+            if (data == SelectionKeyTable.NO_KEY) {
+                // The eventfd is already drained by poll().
+                logger_.debug("[updateSelectedKeys] Poll event fd: {}", eventFd_);
+                continue;
+            }
+
+            EPollSelectionKey key = keyTable_.get(data);
+            if (key == null) {
+                // The key is already removed.
+                continue;
+            }
+            int events = eventBuffer.getInt(offset + Native.EPOLL_EVENT_EVENTS_OFFSET);
+            if (key.triggerMode() == TriggerMode.ONESHOT) {
+                // The kernel has disabled the fd. Let the next update re-arm it even if the events are not changed.
+                key.setInstalledEvents(DISARMED);
             }
+            if (handler != null) {
+                key.updateReadyOps(key.toReadyOps(events));
+                logger_.debug("[updateSelectedKeys] Dispatch {}", key);
+                handler.handle(key);
+            } else {
+                int ops = selectedKeySet.add(key) ? 0 : key.readyOps();
+                key.updateReadyOps(ops | key.toReadyOps(events));
+                logger_.debug("[updateSelectedKeys] {}", key);
+            }
+            selected++;
+        }
+        return selected;
+    }
+
+    private int takeRequeuedKeys() {
+        int size = 0;
+        EPollSelectionKey key;
+        while ((key = requeueQueue_.poll()) != null) {
+            if (size == requeuedKeys_.length) {
+                requeuedKeys_ = Arrays.copyOf(requeuedKeys_, size << 1);
+                requeuedOps_ = Arrays.copyOf(requeuedOps_, size << 1);
+            }
+            requeuedKeys_[size] = key;
+            requeuedOps_[size] = key.takeRequeuedOps();
+            size++;
+        }
+        return size;
+    }
 
-            EPollSelectionKey key = fdKeyMap_.get(event.data_.fd_);
-            int ops = selectedKeySet.add(key) ? 0 : key.readyOps();
-            int events = event.events_;
-            if ((events & Native.EPOLLIN) != 0) {
-                ops |= key.isInterestedInRead() ? SelectionKey.OP_READ : SelectionKey.OP_ACCEPT;
+    private int updateRequeuedKeys(int size, ReadyKeyHandler handler) {
+        SelectedKeySet selectedKeySet = selectedKeySet_;
+        int selected = 0;
+        for (int i = 0; i < size; i++) {
+            EPollSelectionKey key = requeuedKeys_[i];
+            requeuedKeys_[i] = null;
+            if (!key.isValid()) {
+                continue;
             }
-            if ((events & Native.EPOLLOUT) != 0) {
-                ops |= ((events & Native.EPOLLET) != 0) ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT;
+            int readyOps = requeuedOps_[i] & key.interestOps();
+            if (readyOps == 0) {
+                continue;
+            }
+            if (handler != null) {
+                key.updateReadyOps(readyOps);
+                logger_.debug("[updateRequeuedKeys] Dispatch {}", key);
+                handler.handle(key);
+            } else {
+                int ops = selectedKeySet.add(key) ? 0 : key.readyOps();
+                key.updateReadyOps(ops | readyOps);
+                logger_.debug("[updateRequeuedKeys] {}", key);
             }
-            key.updateReadyOps(ops);
-            logger_.debug("[updateSelectedKeys] {}", key);
             selected++;
         }
         return selected;
@@ -264,56 +578,94 @@ public final class EPollSelector extends AbstractSelector {
 
     @Override
     public int selectNow() throws IOException {
-        return poll(0);
+        return poll(0, null);
     }
 
     @Override
     public int select(long timeout) throws IOException {
-        if (timeout < 0) {
-            throw new IllegalArgumentException("The timeout is negative.");
-        }
-        int timeoutMillis = (timeout <= Integer.MAX_VALUE) ? (int) timeout : Integer.MAX_VALUE;
-        return poll((timeoutMillis != 0) ? timeoutMillis : -1);
+        return poll(toPollTimeout(timeout), null);
     }
 
     @Override
     public int select() throws IOException {
-        return poll(-1);
+        return poll(-1, null);
+    }
+
+    /**
+     * Selects the keys whose channels are ready for I/O operations without blocking,
+     * and passes each of them to the handler. The selected-key set is not updated.
+     *
+     * @param handler the handler to handle the keys
+     * @return the number of the keys passed to the handler
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int selectNowAndDispatch(ReadyKeyHandler handler) throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        return poll(0, handler);
+    }
+
+    /**
+     * Selects the keys whose channels are ready for I/O operations, and passes each of them
+     * to the handler. The selected-key set is not updated. This method blocks as
+     * {@link #select(long)} does.
+     *
+     * @param handler the handler to handle the keys
+     * @param timeout the timeout in milliseconds, or zero to block indefinitely
+     * @return the number of the keys passed to the handler
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int selectAndDispatch(ReadyKeyHandler handler, long timeout) throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        return poll(toPollTimeout(timeout), handler);
+    }
+
+    private static int toPollTimeout(long timeout) {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("The timeout is negative.");
+        }
+        int timeoutMillis = (timeout <= Integer.MAX_VALUE) ? (int) timeout : Integer.MAX_VALUE;
+        return (timeoutMillis != 0) ? timeoutMillis : -1;
     }
 
     @Override
     public Selector wakeup() {
-        if (Native.eventfd_write(eventFd_, 1L) == 0) {
+        // Write to the eventfd only once until the selecting thread drains it.
+        AtomicBoolean wakenUp = wakenUp_;
+        if (wakenUp.get() || !wakenUp.compareAndSet(false, true)) {
             return this;
         }
+        synchronized (wakeupLock_) {
+            if (!isOpen() || Native.eventfd_write(eventFd_, 1L) == 0) {
+                return this;
+            }
+        }
         // Assume that errno is set.
-        throw new RuntimeException(Native.getLastError());
+        throw new RuntimeException(ErrnoException.of(Native.errno()));
     }
 
     /**
      * The set to hold {@link net.ihiroky.uds4j.EPollSelectionKey} which selected by epoll().
+     *
+     * The keys are held in a flat array, and each key holds its index in the array. So adding,
+     * removing and clearing the keys don't need hashing. This set is expected to be used by
+     * the thread which selects on the selector.
      */
-    private static class SelectedKeySet implements Set<SelectionKey> {
+    private static class SelectedKeySet extends AbstractSet<SelectionKey> {
 
-        final Set<SelectionKey> keys_;
+        private EPollSelectionKey[] keys_;
+        private int size_;
 
-        SelectedKeySet(int maxKeySize) {
-            keys_ = new HashSet<SelectionKey>(maxKeySize);
+        SelectedKeySet(int initialCapacity) {
+            keys_ = new EPollSelectionKey[initialCapacity];
         }
 
         @Override
         public Iterator<SelectionKey> iterator() {
-            return keys_.iterator();
-        }
-
-        @Override
-        public Object[] toArray() {
-            return keys_.toArray();
-        }
-
-        @Override
-        public <T> T[] toArray(T[] a) {
-            return keys_.toArray(a);
+            return new KeyIterator();
         }
 
         @Override
@@ -321,18 +673,37 @@ public final class EPollSelector extends AbstractSelector {
             throw new UnsupportedOperationException();
         }
 
-        private boolean add(EPollSelectionKey selectionKey) {
-            return keys_.add(selectionKey);
+        private boolean add(EPollSelectionKey key) {
+            if (key.selectedIndex() != EPollSelectionKey.NOT_SELECTED) {
+                return false;
+            }
+            if (size_ == keys_.length) {
+                keys_ = Arrays.copyOf(keys_, size_ << 1);
+            }
+            key.setSelectedIndex(size_);
+            keys_[size_++] = key;
+            return true;
         }
 
         @Override
         public boolean remove(Object o) {
-            return keys_.remove(o);
+            if (!contains(o)) {
+                return false;
+            }
+            removeAt(((EPollSelectionKey) o).selectedIndex());
+            return true;
         }
 
-        @Override
-        public boolean containsAll(Collection<?> c) {
-            return keys_.containsAll(c);
+        private void removeAt(int index) {
+            EPollSelectionKey[] keys = keys_;
+            keys[index].setSelectedIndex(EPollSelectionKey.NOT_SELECTED);
+            int last = --size_;
+            if (index != last) {
+                EPollSelectionKey moved = keys[last];
+                moved.setSelectedIndex(index);
+                keys[index] = moved;
+            }
+            keys[last] = null;
         }
 
         @Override
@@ -340,34 +711,67 @@ public final class EPollSelector extends AbstractSelector {
             throw new UnsupportedOperationException();
         }
 
-        @Override
-        public boolean retainAll(Collection<?> c) {
-            return keys_.retainAll(c);
-        }
-
-        @Override
-        public boolean removeAll(Collection<?> c) {
-            return keys_.removeAll(c);
-        }
-
         @Override
         public void clear() {
-            keys_.clear();
+            EPollSelectionKey[] keys = keys_;
+            for (int i = 0; i < size_; i++) {
+                keys[i].setSelectedIndex(EPollSelectionKey.NOT_SELECTED);
+                keys[i] = null;
+            }
+            size_ = 0;
         }
 
         @Override
         public int size() {
-            return keys_.size();
+            return size_;
         }
 
         @Override
         public boolean isEmpty() {
-            return keys_.isEmpty();
+            return size_ == 0;
         }
 
         @Override
         public boolean contains(Object o) {
-            return keys_.contains(o);
+            if (!(o instanceof EPollSelectionKey)) {
+                return false;
+            }
+            int index = ((EPollSelectionKey) o).selectedIndex();
+            return index >= 0 && index < size_ && keys_[index] == o;
+        }
+
+        /**
+         * The iterator of the selected keys.
+         */
+        private class KeyIterator implements Iterator<SelectionKey> {
+
+            int cursor_;
+            int last_ = -1;
+
+            @Override
+            public boolean hasNext() {
+                return cursor_ < size_;
+            }
+
+            @Override
+            public SelectionKey next() {
+                if (cursor_ >= size_) {
+                    throw new NoSuchElementException();
+                }
+                last_ = cursor_++;
+                return keys_[last_];
+            }
+
+            @Override
+            public void remove() {
+                if (last_ < 0) {
+                    throw new IllegalStateException();
+                }
+                // The last key is moved to the removed index, so visit the index again.
+                removeAt(last_);
+                cursor_ = last_;
+                last_ = -1;
+            }
         }
     }
 }
@@ -0,0 +1,54 @@
+package net.ihiroky.uds4j;
+
+import java.io.IOException;
+
+/**
+ * Signals that a system call failed with an errno.
+ *
+ * Frequent errors such as {@link net.ihiroky.uds4j.ConnectionResetException} and
+ * {@link net.ihiroky.uds4j.BrokenPipeException} are thrown without a stack trace.
+ */
+public class ErrnoException extends IOException {
+
+    private final int errno_;
+
+    private static final long serialVersionUID = -2981405541530870434L;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param errno the errno
+     * @param message the detail message
+     */
+    public ErrnoException(int errno, String message) {
+        super(message);
+        errno_ = errno;
+    }
+
+    /**
+     * Returns the errno.
+     *
+     * @return the errno
+     */
+    public int errno() {
+        return errno_;
+    }
+
+    /**
+     * Returns a new exception for the errno. The errno which has a dedicated subclass
+     * is mapped to the subclass.
+     *
+     * @param errno the errno
+     * @return the exception
+     */
+    static ErrnoException of(int errno) {
+        switch (errno) {
+            case Native.ECONNRESET:
+                return new ConnectionResetException();
+            case Native.EPIPE:
+                return new BrokenPipeException();
+            default:
+                return new ErrnoException(errno, Native.strerror(errno));
+        }
+    }
+}
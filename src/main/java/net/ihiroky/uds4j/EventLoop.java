@@ -0,0 +1,290 @@
+package net.ihiroky.uds4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A thread which owns a {@link net.ihiroky.uds4j.EPollSelector} and dispatches the ready keys of it.
+ *
+ * The attachment of the key registered through {@link #register(AbstractChannel, int, ReadyKeyHandler)}
+ * is the {@link net.ihiroky.uds4j.ReadyKeyHandler}, which is called in this loop when the channel
+ * gets ready. The tasks passed to {@link #execute(Runnable)} are run in this loop after the ready keys
+ * are dispatched.
+ *
+ * If the selection fails, this loop backs off before the next selection, and shuts itself down
+ * after {@link #MAX_SELECT_FAILURES} consecutive failures. This loop is also shut down by an unexpected
+ * exception thrown from the selector; the registered channels and the selector are closed in any case.
+ */
+public final class EventLoop implements Executor {
+
+    private final EPollSelector selector_;
+    private final Queue<Runnable> taskQueue_;
+    private final Thread thread_;
+    private final ReadyKeyHandler dispatcher_;
+    private volatile boolean shutdown_;
+
+    private static Logger logger_ = LoggerFactory.getLogger(EventLoop.class);
+    private static final int ACCEPT_BATCH_SIZE = 64;
+
+    /** The number of the consecutive selection failures which shuts down this loop. */
+    static final int MAX_SELECT_FAILURES = 8;
+
+    private static final long MAX_BACK_OFF_MILLIS = 1000L;
+
+    EventLoop(ThreadFactory threadFactory) throws IOException {
+        selector_ = EPollSelector.open();
+        taskQueue_ = new ConcurrentLinkedQueue<Runnable>();
+        dispatcher_ = new Dispatcher();
+        thread_ = threadFactory.newThread(new Runnable() {
+            @Override
+            public void run() {
+                loop();
+            }
+        });
+    }
+
+    void start() {
+        thread_.start();
+    }
+
+    private void loop() {
+        EPollSelector selector = selector_;
+        ReadyKeyHandler dispatcher = dispatcher_;
+        int failures = 0;
+        try {
+            while (!shutdown_) {
+                try {
+                    if (taskQueue_.isEmpty()) {
+                        selector.selectAndDispatch(dispatcher, 0L);
+                    } else {
+                        selector.selectNowAndDispatch(dispatcher);
+                    }
+                    failures = 0;
+                } catch (IOException ioe) {
+                    if (++failures >= MAX_SELECT_FAILURES) {
+                        logger_.error("[loop] Failed to select " + failures + " times in a row. Shutting down.", ioe);
+                        break;
+                    }
+                    logger_.warn("[loop] Failed to select.", ioe);
+                    backOff(failures);
+                }
+                runTasks();
+            }
+        } catch (RuntimeException re) {
+            logger_.error("[loop] Unexpected exception. Shutting down.", re);
+        } finally {
+            // Reject the tasks executed from now on, and run the ones already queued.
+            shutdown_ = true;
+            try {
+                runTasks();
+                closeSelector();
+            } finally {
+                BufferArena.getInstance().releaseLocalMagazine();
+            }
+        }
+    }
+
+    private static void backOff(int failures) {
+        try {
+            Thread.sleep(Math.min(1L << failures, MAX_BACK_OFF_MILLIS));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = taskQueue_.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException re) {
+                logger_.warn("[runTasks] Unexpected exception.", re);
+            }
+        }
+    }
+
+    private void closeSelector() {
+        if (!selector_.isOpen()) {
+            return;
+        }
+        for (SelectionKey key : selector_.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException ioe) {
+                logger_.warn("[closeSelector] Failed to close the channel: " + key.channel(), ioe);
+            }
+        }
+        try {
+            selector_.close();
+        } catch (IOException ioe) {
+            logger_.warn("[closeSelector] Failed to close the selector.", ioe);
+        }
+    }
+
+    /**
+     * Runs the task in this loop. This loop is woken up if this method is called by an other thread.
+     *
+     * @param task the task
+     * @throws java.util.concurrent.RejectedExecutionException if this loop is shut down
+     */
+    @Override
+    public void execute(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        if (shutdown_) {
+            throw new RejectedExecutionException("The event loop is shut down.");
+        }
+        taskQueue_.offer(task);
+        // The loop may have run the last tasks before the task is queued. Then take it back and reject it.
+        // If it's already taken, the loop runs it.
+        if (shutdown_ && taskQueue_.remove(task)) {
+            throw new RejectedExecutionException("The event loop is shut down.");
+        }
+        if (!inEventLoop()) {
+            selector_.wakeup();
+        }
+    }
+
+    /**
+     * Registers the channel to the selector of this loop. The channel is configured
+     * in non-blocking mode.
+     *
+     * @param channel the channel
+     * @param ops the interest set of the key
+     * @param handler the handler called when the channel is ready
+     * @return the key
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EPollSelectionKey register(AbstractChannel channel, int ops, ReadyKeyHandler handler) throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        channel.configureBlocking(false);
+        return (EPollSelectionKey) channel.register(selector_, ops, handler);
+    }
+
+    /**
+     * Registers the listening channel to the selector of this loop with
+     * {@link net.ihiroky.uds4j.EPollSelector#EXCLUSIVE} in {@link net.ihiroky.uds4j.TriggerMode#LEVEL}.
+     * The channel is configured in non-blocking mode. The connections accepted by this loop are passed to the handler.
+     *
+     * @param channel the listening channel
+     * @param handler the handler to handle the accepted channels
+     * @return the key
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EPollSelectionKey registerAcceptor(ServerUnixDomainChannel channel, AcceptHandler handler)
+            throws IOException {
+        if (handler == null) {
+            throw new NullPointerException("handler");
+        }
+        channel.configureBlocking(false);
+        return selector_.register(channel, SelectionKey.OP_ACCEPT, new Acceptor(handler),
+                EPollSelector.EXCLUSIVE, TriggerMode.LEVEL);
+    }
+
+    /**
+     * Returns true if the caller is the thread of this loop.
+     * @return true if the caller is the thread of this loop
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == thread_;
+    }
+
+    /**
+     * Returns the selector owned by this loop.
+     * @return the selector owned by this loop
+     */
+    public EPollSelector selector() {
+        return selector_;
+    }
+
+    /**
+     * Returns the number of the channels registered to this loop.
+     * @return the number of the channels registered to this loop
+     */
+    public int getChannelCount() {
+        return selector_.isOpen() ? selector_.keys().size() : 0;
+    }
+
+    void shutdown() {
+        shutdown_ = true;
+        selector_.wakeup();
+    }
+
+    boolean isShutdown() {
+        return shutdown_;
+    }
+
+    void join(long millis) throws InterruptedException {
+        thread_.join(millis);
+    }
+
+    boolean isTerminated() {
+        return shutdown_ && !thread_.isAlive();
+    }
+
+    /**
+     * Accepts a batch of the connections per event. The key is level-triggered, so the rest of
+     * the backlog is reported again in the next selection, after the other keys are handled.
+     */
+    private class Acceptor implements ReadyKeyHandler {
+
+        private final AcceptHandler handler_;
+        private final List<ClientUnixDomainChannel> accepted_;
+
+        Acceptor(AcceptHandler handler) {
+            handler_ = handler;
+            accepted_ = new ArrayList<ClientUnixDomainChannel>(ACCEPT_BATCH_SIZE);
+        }
+
+        @Override
+        public void handle(EPollSelectionKey key) {
+            ServerUnixDomainChannel server = (ServerUnixDomainChannel) key.channel();
+            List<ClientUnixDomainChannel> accepted = accepted_;
+            try {
+                server.acceptAll(accepted, ACCEPT_BATCH_SIZE);
+            } catch (IOException ioe) {
+                logger_.warn("[handle] Failed to accept.", ioe);
+            }
+            try {
+                // The channels accepted before an error are also passed.
+                for (ClientUnixDomainChannel channel : accepted) {
+                    handler_.accepted(channel, EventLoop.this);
+                }
+            } finally {
+                accepted.clear();
+            }
+        }
+    }
+
+    /**
+     * Calls the handler attached to the ready key.
+     */
+    private static class Dispatcher implements ReadyKeyHandler {
+        @Override
+        public void handle(EPollSelectionKey key) {
+            try {
+                ((ReadyKeyHandler) key.attachment()).handle(key);
+            } catch (RuntimeException re) {
+                logger_.warn("[handle] Unexpected exception. The channel is closed: " + key.channel(), re);
+                try {
+                    key.channel().close();
+                } catch (IOException ioe) {
+                    logger_.warn("[handle] Failed to close the channel: " + key.channel(), ioe);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package net.ihiroky.uds4j;
+
+import java.util.List;
+
+/**
+ * A strategy to choose the {@link net.ihiroky.uds4j.EventLoop} which a channel is assigned to.
+ * Some implementations are provided by {@link net.ihiroky.uds4j.EventLoopChoosers}.
+ */
+public interface EventLoopChooser {
+
+    /**
+     * Chooses one of the loops. This method may be called by multiple threads concurrently.
+     *
+     * @param loops the loops in the group, which is not empty
+     * @return the chosen loop
+     */
+    EventLoop choose(List<EventLoop> loops);
+}
@@ -0,0 +1,67 @@
+package net.ihiroky.uds4j;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Provides the implementations of {@link net.ihiroky.uds4j.EventLoopChooser}.
+ */
+public final class EventLoopChoosers {
+
+    private EventLoopChoosers() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns a new chooser which chooses the loops in turn.
+     * @return the chooser
+     */
+    public static EventLoopChooser roundRobin() {
+        return new RoundRobin();
+    }
+
+    /**
+     * Returns a chooser which chooses the loop with the least registered channels.
+     * @return the chooser
+     */
+    public static EventLoopChooser leastConnections() {
+        return LeastConnections.INSTANCE;
+    }
+
+    /**
+     * Chooses the loops in turn.
+     */
+    private static class RoundRobin implements EventLoopChooser {
+
+        private final AtomicInteger index_ = new AtomicInteger();
+
+        @Override
+        public EventLoop choose(List<EventLoop> loops) {
+            int i = index_.getAndIncrement() & Integer.MAX_VALUE;
+            return loops.get(i % loops.size());
+        }
+    }
+
+    /**
+     * Chooses the loop with the least registered channels.
+     */
+    private static class LeastConnections implements EventLoopChooser {
+
+        static final LeastConnections INSTANCE = new LeastConnections();
+
+        @Override
+        public EventLoop choose(List<EventLoop> loops) {
+            EventLoop chosen = loops.get(0);
+            int least = chosen.getChannelCount();
+            for (int i = 1; i < loops.size(); i++) {
+                EventLoop loop = loops.get(i);
+                int count = loop.getChannelCount();
+                if (count < least) {
+                    chosen = loop;
+                    least = count;
+                }
+            }
+            return chosen;
+        }
+    }
+}
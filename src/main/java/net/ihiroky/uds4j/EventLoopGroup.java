@@ -0,0 +1,181 @@
+package net.ihiroky.uds4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of {@link net.ihiroky.uds4j.EventLoop}, each of which owns a thread and
+ * a {@link net.ihiroky.uds4j.EPollSelector}. A channel registered to this group is
+ * assigned to one of the loops by {@link net.ihiroky.uds4j.EventLoopChooser}.
+ */
+public final class EventLoopGroup {
+
+    private final List<EventLoop> loops_;
+    private final EventLoopChooser chooser_;
+
+    /**
+     * Constructs a new instance which assigns channels in round-robin order.
+     *
+     * @param loops the number of the loops
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EventLoopGroup(int loops) throws IOException {
+        this(loops, EventLoopChoosers.roundRobin(), new LoopThreadFactory());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param loops the number of the loops
+     * @param chooser the strategy to assign channels to the loops
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EventLoopGroup(int loops, EventLoopChooser chooser) throws IOException {
+        this(loops, chooser, new LoopThreadFactory());
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param loops the number of the loops
+     * @param chooser the strategy to assign channels to the loops
+     * @param threadFactory the factory to create the threads of the loops
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EventLoopGroup(int loops, EventLoopChooser chooser, ThreadFactory threadFactory) throws IOException {
+        if (loops <= 0) {
+            throw new IllegalArgumentException("The loops must be positive.");
+        }
+        if (chooser == null) {
+            throw new NullPointerException("chooser");
+        }
+        if (threadFactory == null) {
+            throw new NullPointerException("threadFactory");
+        }
+
+        List<EventLoop> list = new ArrayList<EventLoop>(loops);
+        try {
+            for (int i = 0; i < loops; i++) {
+                list.add(new EventLoop(threadFactory));
+            }
+        } catch (IOException ioe) {
+            for (EventLoop loop : list) {
+                loop.selector().close();
+            }
+            throw ioe;
+        }
+        for (EventLoop loop : list) {
+            loop.start();
+        }
+        loops_ = Collections.unmodifiableList(list);
+        chooser_ = chooser;
+    }
+
+    /**
+     * Returns the loop chosen by the chooser of this group.
+     * @return the loop
+     */
+    public EventLoop next() {
+        return chooser_.choose(loops_);
+    }
+
+    /**
+     * Returns the loops in this group.
+     * @return the loops in this group
+     */
+    public List<EventLoop> loops() {
+        return loops_;
+    }
+
+    /**
+     * Registers the channel to the loop chosen by the chooser of this group.
+     *
+     * @param channel the channel
+     * @param ops the interest set of the key
+     * @param handler the handler called when the channel is ready
+     * @return the key
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public EPollSelectionKey register(AbstractChannel channel, int ops, ReadyKeyHandler handler) throws IOException {
+        return next().register(channel, ops, handler);
+    }
+
+    /**
+     * Registers the listening channel to all loops in this group. Each loop accepts
+     * connections by itself, and the kernel wakes up only one of the loops for each
+     * incoming connection with EPOLLEXCLUSIVE.
+     *
+     * @param channel the listening channel
+     * @param handler the handler to handle the accepted channels
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public void registerAcceptor(ServerUnixDomainChannel channel, AcceptHandler handler) throws IOException {
+        for (EventLoop loop : loops_) {
+            loop.registerAcceptor(channel, handler);
+        }
+    }
+
+    /**
+     * Shuts down the loops. The channels registered to the loops are closed.
+     */
+    public void shutdown() {
+        for (EventLoop loop : loops_) {
+            loop.shutdown();
+        }
+    }
+
+    /**
+     * Returns true if all loops are terminated.
+     * @return true if all loops are terminated
+     */
+    public boolean isTerminated() {
+        for (EventLoop loop : loops_) {
+            if (!loop.isTerminated()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Waits until all loops terminate after {@link #shutdown()}.
+     *
+     * @param timeout the maximum time to wait
+     * @param unit the unit of the timeout
+     * @return true if all loops are terminated
+     * @throws java.lang.InterruptedException if interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (EventLoop loop : loops_) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (millis <= 0) {
+                break;
+            }
+            loop.join(millis);
+        }
+        return isTerminated();
+    }
+
+    /**
+     * Creates the threads for the loops.
+     */
+    private static class LoopThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count_ = new AtomicInteger();
+
+        private static final AtomicInteger GROUP_COUNT = new AtomicInteger();
+
+        private final int group_ = GROUP_COUNT.getAndIncrement();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "uds4j-event-loop-" + group_ + "-" + count_.getAndIncrement());
+        }
+    }
+}
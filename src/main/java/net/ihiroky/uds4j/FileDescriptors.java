@@ -0,0 +1,76 @@
+package net.ihiroky.uds4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.lang.reflect.Field;
+import java.nio.channels.FileChannel;
+
+/**
+ * Looks up the file descriptor of a {@link java.nio.channels.FileChannel} by reflection.
+ *
+ * The lookup depends on the private fields of the JDK. If they are not accessible, for example
+ * on Java 9 or later without {@code --add-opens java.base/sun.nio.ch=ALL-UNNAMED} and
+ * {@code --add-opens java.base/java.io=ALL-UNNAMED}, no file descriptor is found and a warning is
+ * logged when this class is loaded. The test task of the build adds these options, so the JVM options
+ * of an application which uses this library need them as well.
+ */
+final class FileDescriptors {
+
+    private static Logger logger_ = LoggerFactory.getLogger(FileDescriptors.class);
+
+    private static final Field CHANNEL_FD = accessibleField("sun.nio.ch.FileChannelImpl", "fd");
+    private static final Field DESCRIPTOR_FD = accessibleField("java.io.FileDescriptor", "fd");
+
+    static {
+        if (!isAvailable()) {
+            logger_.warn("The file descriptor of FileChannel is not accessible, so the file transfer of "
+                    + "ClientUnixDomainChannel falls back to copying through a buffer. Add "
+                    + "'--add-opens java.base/sun.nio.ch=ALL-UNNAMED --add-opens java.base/java.io=ALL-UNNAMED' "
+                    + "to the JVM options to use sendfile() and splice().");
+        }
+    }
+
+    private FileDescriptors() {
+        throw new AssertionError();
+    }
+
+    private static Field accessibleField(String className, String fieldName) {
+        try {
+            Field field = Class.forName(className).getDeclaredField(fieldName);
+            field.setAccessible(true);
+            return field;
+        } catch (Exception e) {
+            logger_.debug("[accessibleField] {}.{} is not accessible.", className, fieldName, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the file descriptor of {@link java.nio.channels.FileChannel} can be looked up.
+     *
+     * @return true if the file descriptor of {@link java.nio.channels.FileChannel} can be looked up
+     */
+    static boolean isAvailable() {
+        return CHANNEL_FD != null && DESCRIPTOR_FD != null;
+    }
+
+    /**
+     * Returns the file descriptor of the channel.
+     *
+     * @param channel the channel
+     * @return the file descriptor, or -1 if it is not available
+     */
+    static int of(FileChannel channel) {
+        if (!isAvailable() || !CHANNEL_FD.getDeclaringClass().isInstance(channel)) {
+            return -1;
+        }
+        try {
+            FileDescriptor fd = (FileDescriptor) CHANNEL_FD.get(channel);
+            return (fd != null && fd.valid()) ? DESCRIPTOR_FD.getInt(fd) : -1;
+        } catch (IllegalAccessException iae) {
+            return -1;
+        }
+    }
+}
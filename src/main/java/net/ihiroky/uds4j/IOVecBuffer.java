@@ -1,20 +1,38 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * Provides the thread local buffer for readv/writev.
+ *
+ * The iovec array is a single native memory block. The address and the length of
+ * each buffer are written into the block directly, so readv/writev take the block
+ * as is without marshalling any structure. The block grows up to {@code IOV_MAX}
+ * entries according to the largest count reserved on the thread. The heap buffers
+ * are staged in the direct buffers provided by {@link net.ihiroky.uds4j.BufferArena}.
  */
 final class IOVecBuffer {
 
-    private final Native.IOVec.ByReference ioVecHead_;
-    private final Native.IOVec[] ioVecArray_;
-    private final ByteBufferPool bufferPool_;
+    private Memory ioVecTable_;
+    private ByteBuffer ioVecBuffer_;
+    private ByteBuffer[] bases_;
+    private final BufferArena arena_;
+
+    private static final int INITIAL_CAPACITY = 16;
 
     private IOVecBuffer() {
-        ioVecHead_ = new Native.IOVec.ByReference();
-        ioVecArray_ = (Native.IOVec[]) ioVecHead_.toArray(Native.IOV_MAX);
-        bufferPool_ = new ByteBufferPool();
+        arena_ = BufferArena.getInstance();
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        ioVecTable_ = new Memory((long) capacity * Native.IOVEC_SIZE);
+        ioVecBuffer_ = ioVecTable_.getByteBuffer(0, ioVecTable_.size()).order(ByteOrder.nativeOrder());
+        bases_ = new ByteBuffer[capacity];
     }
 
     private static final ThreadLocal<IOVecBuffer> INSTANCE = new ThreadLocal<IOVecBuffer>() {
@@ -37,49 +55,78 @@ final class IOVecBuffer {
         return instance;
     }
 
-    Native.IOVec.ByReference headReference() {
-        return ioVecHead_;
+    /**
+     * Ensures that the iovec array holds {@code count} entries. The entries set before
+     * this call are discarded if the array grows.
+     *
+     * @param count the number of the entries
+     */
+    void reserve(int count) {
+        int capacity = bases_.length;
+        if (count <= capacity) {
+            return;
+        }
+        if (count > Native.IOV_MAX) {
+            throw new IllegalArgumentException("The count must not be greater than " + Native.IOV_MAX);
+        }
+        while (capacity < count) {
+            capacity <<= 1;
+        }
+        allocate(Math.min(capacity, Native.IOV_MAX));
+    }
+
+    int capacity() {
+        return bases_.length;
+    }
+
+    Pointer table() {
+        return ioVecTable_;
     }
 
-    void set(int i, ByteBuffer buffer) {
+    void set(int i, ByteBuffer buffer) throws OutOfNativeMemoryException {
         if (buffer.isDirect()) {
-            Native.IOVec vec = ioVecArray_[i];
-            vec.iovBase_ = buffer;
-            vec.iovLen_ = buffer.remaining();
+            bases_[i] = buffer;
+            put(i, buffer);
             return;
         }
 
-        int remaining = buffer.remaining();
-        ByteBuffer directBuffer = bufferPool_.search(remaining);
+        ByteBuffer directBuffer = arena_.acquire(buffer.remaining());
         int position = buffer.position();
         directBuffer.put(buffer);
         directBuffer.flip();
         buffer.position(position);
 
-        Native.IOVec vec = ioVecArray_[i];
-        vec.iovBase_ = directBuffer;
-        vec.iovLen_ = remaining;
+        bases_[i] = directBuffer;
+        put(i, directBuffer);
+    }
+
+    private void put(int i, ByteBuffer directBuffer) {
+        long address = Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(directBuffer));
+        int offset = i * Native.IOVEC_SIZE;
+        ioVecBuffer_.putLong(offset + Native.IOVEC_BASE_OFFSET, address + directBuffer.position());
+        ioVecBuffer_.putLong(offset + Native.IOVEC_LEN_OFFSET, directBuffer.remaining());
     }
 
     void clear(int i, ByteBuffer buffer) {
-        Native.IOVec vec = ioVecArray_[i];
-        if (buffer.isDirect()) {
-            vec.iovBase_ = null;
+        ByteBuffer base = bases_[i];
+        if (base == null) {
             return;
         }
-
-        ByteBuffer directBuffer = vec.iovBase_;
-        if (directBuffer != null) {
-            vec.iovBase_ = null;
-            bufferPool_.offerLast(directBuffer);
+        bases_[i] = null;
+        if (!buffer.isDirect()) {
+            arena_.release(base);
         }
     }
 
-    Native.IOVec get(int i) {
-        return ioVecArray_[i];
+    ByteBuffer base(int i) {
+        return bases_[i];
+    }
+
+    long address(int i) {
+        return ioVecBuffer_.getLong(i * Native.IOVEC_SIZE + Native.IOVEC_BASE_OFFSET);
     }
 
-    int getPooledBuffers() {
-        return bufferPool_.count();
+    long length(int i) {
+        return ioVecBuffer_.getLong(i * Native.IOVEC_SIZE + Native.IOVEC_LEN_OFFSET);
     }
 }
@@ -0,0 +1,69 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Memory;
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Provides the thread local buffer for msghdr passed to sendmsg/recvmsg.
+ *
+ * Like {@link net.ihiroky.uds4j.IOVecBuffer}, the fields are written into a native memory
+ * block directly, and recvmsg updates the block in place.
+ */
+final class MessageHeader {
+
+    private final Memory memory_;
+    private final ByteBuffer buffer_;
+
+    private MessageHeader() {
+        memory_ = new Memory(Native.MSGHDR_SIZE);
+        buffer_ = memory_.getByteBuffer(0, Native.MSGHDR_SIZE).order(ByteOrder.nativeOrder());
+    }
+
+    private static final ThreadLocal<MessageHeader> INSTANCE = new ThreadLocal<MessageHeader>() {
+        @Override
+        protected MessageHeader initialValue() {
+            return new MessageHeader();
+        }
+    };
+
+    static MessageHeader getInstance() {
+        return INSTANCE.get();
+    }
+
+    /**
+     * Sets the fields of msghdr.
+     *
+     * @param name the address of sockaddr_un, or null
+     * @param nameLength the length of sockaddr_un
+     * @param ioVec the address of the iovec array
+     * @param ioVecCount the number of the iovec entries
+     * @param control the address of the control messages, or null
+     * @param controlLength the length of the control messages
+     * @return the address of msghdr
+     */
+    Pointer set(Pointer name, int nameLength, Pointer ioVec, int ioVecCount, Pointer control, int controlLength) {
+        buffer_.putLong(Native.MSGHDR_NAME_OFFSET, (name != null) ? Pointer.nativeValue(name) : 0L);
+        buffer_.putInt(Native.MSGHDR_NAMELEN_OFFSET, nameLength);
+        buffer_.putLong(Native.MSGHDR_IOV_OFFSET, Pointer.nativeValue(ioVec));
+        buffer_.putLong(Native.MSGHDR_IOVLEN_OFFSET, ioVecCount);
+        buffer_.putLong(Native.MSGHDR_CONTROL_OFFSET, (control != null) ? Pointer.nativeValue(control) : 0L);
+        buffer_.putLong(Native.MSGHDR_CONTROLLEN_OFFSET, controlLength);
+        buffer_.putInt(Native.MSGHDR_FLAGS_OFFSET, 0);
+        return memory_;
+    }
+
+    int nameLength() {
+        return buffer_.getInt(Native.MSGHDR_NAMELEN_OFFSET);
+    }
+
+    int controlLength() {
+        return (int) buffer_.getLong(Native.MSGHDR_CONTROLLEN_OFFSET);
+    }
+
+    int flags() {
+        return buffer_.getInt(Native.MSGHDR_FLAGS_OFFSET);
+    }
+}
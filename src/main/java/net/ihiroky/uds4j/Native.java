@@ -37,6 +37,8 @@ public final class Native {
     static final int SOCK_STREAM = 1;
     static final int SOCK_DGRAM = 2;
     static final int PROTOCOL = 0;
+    static final int SOCK_NONBLOCK = 04000;
+    static final int SOCK_CLOEXEC = 02000000;
 
     static final int SHUT_RD = 0;
     static final int SHUT_WR = 1;
@@ -49,6 +51,9 @@ public final class Native {
         /** The maximum length of sun_path. */
         private static final int UNIX_PATH_MAX = 108;
 
+        /** The offset of sun_path, which is the length of the address of unnamed sockets. */
+        static final int SUN_PATH_OFFSET = 2;
+
         /** The sun_family of sockaddr_un. */
         public short sunFamily_ = AF_UNIX;
 
@@ -100,6 +105,7 @@ public final class Native {
     static native int connect(int fd, SockAddrUn sockaddr, int addrlen);
     static native int listen(int fd, int backlog);
     static native int accept(int fd, SockAddrUn sockaddr, IntByReference addrlen);
+    static native int accept4(int fd, SockAddrUn sockaddr, IntByReference addrlen, int flags);
     static native int shutdown(int sockfd, int how);
 
     static native int getsockname(int fd, SockAddrUn addr, IntByReference addrlen);
@@ -110,6 +116,72 @@ public final class Native {
     static native int sendto(int fd, ByteBuffer buf, int len, int flags, SockAddrUn to, int tolen);
 
 
+    /*======================================================================
+     * /usr/include/x86_64-linux-gnu/bits/socket.h
+     * /usr/include/x86_64-linux-gnu/sys/socket.h
+     *======================================================================*/
+
+    static final int MSG_CTRUNC = 0x08;
+    static final int MSG_TRUNC = 0x20;
+    static final int MSG_WAITFORONE = 0x10000;
+    static final int MSG_CMSG_CLOEXEC = 0x40000000;
+
+    static final int SCM_RIGHTS = 1;
+    static final int SCM_CREDENTIALS = 2;
+
+    /** The maximum number of the file descriptors passed by a message, which is SCM_MAX_FD in the kernel. */
+    static final int SCM_MAX_FD = 253;
+
+    // The layout of struct msghdr on x86_64.
+    static final int MSGHDR_SIZE = 56;
+    static final int MSGHDR_NAME_OFFSET = 0;
+    static final int MSGHDR_NAMELEN_OFFSET = 8;
+    static final int MSGHDR_IOV_OFFSET = 16;
+    static final int MSGHDR_IOVLEN_OFFSET = 24;
+    static final int MSGHDR_CONTROL_OFFSET = 32;
+    static final int MSGHDR_CONTROLLEN_OFFSET = 40;
+    static final int MSGHDR_FLAGS_OFFSET = 48;
+
+    // The layout of struct ucred on x86_64.
+    static final int UCRED_SIZE = 12;
+    static final int UCRED_PID_OFFSET = 0;
+    static final int UCRED_UID_OFFSET = 4;
+    static final int UCRED_GID_OFFSET = 8;
+
+    // The layout of struct cmsghdr on x86_64.
+    static final int CMSGHDR_SIZE = 16;
+    static final int CMSGHDR_LEN_OFFSET = 0;
+    static final int CMSGHDR_LEVEL_OFFSET = 8;
+    static final int CMSGHDR_TYPE_OFFSET = 12;
+
+    // The layout of struct mmsghdr on x86_64.
+    static final int MMSGHDR_SIZE = 64;
+    static final int MMSGHDR_LEN_OFFSET = 56;
+
+    // The size of struct sockaddr_un.
+    static final int SOCKADDR_UN_SIZE = 110;
+
+    static native NativeLong sendmsg(int fd, Pointer msg, int flags);
+    static native NativeLong recvmsg(int fd, Pointer msg, int flags);
+    static native int sendmmsg(int fd, Pointer msgvec, int vlen, int flags);
+    static native int recvmmsg(int fd, Pointer msgvec, int vlen, int flags, Pointer timeout);
+
+    /** CMSG_ALIGN() in sys/socket.h. */
+    static int cmsgAlign(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /** CMSG_SPACE() in sys/socket.h. */
+    static int cmsgSpace(int length) {
+        return CMSGHDR_SIZE + cmsgAlign(length);
+    }
+
+    /** CMSG_LEN() in sys/socket.h. */
+    static int cmsgLen(int length) {
+        return CMSGHDR_SIZE + length;
+    }
+
+
     /*======================================================================
      * /usr/include/unistd.h
      *======================================================================*/
@@ -119,6 +191,17 @@ public final class Native {
     static native int close(int fd);
     static native int pread(int fd, ByteBuffer buffer, int count, int offset);
     static native int pwrite(int fd, ByteBuffer buffer, int count, int offset);
+    static native int pipe2(int[] fds, int flags);
+
+
+    /*======================================================================
+     * /usr/include/asm-generic/ioctls.h
+     * /usr/include/x86_64-linux-gnu/sys/ioctl.h
+     *======================================================================*/
+
+    static final int FIONREAD = 0x541B;
+
+    static native int ioctl(int fd, int request, IntByReference value);
 
 
     /*======================================================================
@@ -129,6 +212,7 @@ public final class Native {
     static final int SO_SNDBUF = 7;
     static final int SO_RCVBUF = 8;
     static final int SO_PASSCRED = 16;
+    static final int SO_PEERCRED = 17;
 
 
     /*======================================================================
@@ -173,8 +257,13 @@ public final class Native {
         }
     }
 
-    static native NativeLong readv(int fd, IOVec.ByReference ioVec, int count);
-    static native NativeLong writev(int fd, IOVec.ByReference ioVec, int count);
+    // The layout of struct iovec on x86_64.
+    static final int IOVEC_SIZE = 16;
+    static final int IOVEC_BASE_OFFSET = 0;
+    static final int IOVEC_LEN_OFFSET = 8;
+
+    static native NativeLong readv(int fd, Pointer ioVec, int count);
+    static native NativeLong writev(int fd, Pointer ioVec, int count);
 
 
     /*======================================================================
@@ -187,9 +276,17 @@ public final class Native {
 
     static final int EPOLLIN = 0x001;
     static final int EPOLLOUT = 0x004;
+    static final int EPOLLERR = 0x008;
+    static final int EPOLLHUP = 0x010;
+    static final int EPOLLEXCLUSIVE = 1 << 28;
     static final int EPOLLONESHOT = 1 << 30;
     static final int EPOLLET = 1 << 31;
 
+    // The layout of struct epoll_event, which is packed on x86_64.
+    static final int EPOLL_EVENT_SIZE = 12;
+    static final int EPOLL_EVENT_EVENTS_OFFSET = 0;
+    static final int EPOLL_EVENT_DATA_OFFSET = 4;
+
     /**
      * A class which represents the union epoll_data.
      */
@@ -285,6 +382,18 @@ public final class Native {
                 data_.setType(Pointer.class);
             }
 
+            /**
+             * Constructs a new instance.
+             * @param u64 the u64.
+             * @param events the events.
+             */
+            public ByReference(long u64, int events) {
+                super();
+                events_ = events;
+                data_.u64_ = u64;
+                data_.setType(Long.TYPE);
+            }
+
             /**
              * Add EPOLLONESHOT to the events.
              * @return this instance
@@ -304,6 +413,17 @@ public final class Native {
                 data_.fd_ = fd;
                 data_.setType(Integer.TYPE);
             }
+
+            /**
+             * Updates the u64 and the events.
+             * @param u64 the u64
+             * @param events the events
+             */
+            public void update(long u64, int events) {
+                events_ = events;
+                data_.u64_ = u64;
+                data_.setType(Long.TYPE);
+            }
         }
     }
 
@@ -312,6 +432,25 @@ public final class Native {
     static native int epoll_wait(int epfd, Pointer events, int maxevents, int timeout);
 
 
+    /*======================================================================
+     * /usr/include/x86_64-linux-gnu/sys/sendfile.h
+     *======================================================================*/
+
+    static native NativeLong sendfile(int outFd, int inFd, LongByReference offset, NativeLong count);
+
+
+    /*======================================================================
+     * /usr/include/x86_64-linux-gnu/bits/fcntl-linux.h
+     *======================================================================*/
+
+    static final int SPLICE_F_MOVE = 1;
+    static final int SPLICE_F_NONBLOCK = 2;
+    static final int SPLICE_F_MORE = 4;
+
+    static native NativeLong splice(
+            int fdIn, LongByReference offIn, int fdOut, LongByReference offOut, NativeLong len, int flags);
+
+
     /*======================================================================
      * /usr/include/x86_64-linux-gnu/sys/eventfd.h
      *======================================================================*/
@@ -328,6 +467,7 @@ public final class Native {
      *======================================================================*/
 
     static final int O_NONBLOCK = 04000;
+    static final int O_CLOEXEC = 02000000;
     static final int F_GETFL = 3;
     static final int F_SETFL = 4;
 
@@ -339,8 +479,14 @@ public final class Native {
      * /usr/include/asm-generic/errno.h
      *======================================================================*/
 
+    static final int ENOENT = 2;
+    static final int EBADF = 9;
     static final int EAGAIN = 11;
     static final int EWOULDBLOCK = EAGAIN;
+    static final int EINVAL = 22;
+    static final int EPIPE = 32;
+    static final int ENOSYS = 38;
+    static final int ECONNRESET = 104;
     static final int EISCONN = 106;
     static final int EALREADY = 114;
 
@@ -354,9 +500,12 @@ public final class Native {
      *======================================================================*/
     static native String strerror(int errno);
 
-    static String getLastError() {
-        return strerror(errno());
-    }
+
+    /*======================================================================
+     * /usr/include/stdlib.h
+     *======================================================================*/
+    static native long malloc(long size);
+    static native void free(long ptr);
 
 
     /*======================================================================
@@ -462,7 +611,9 @@ public final class Native {
                         array[0].iovLen_ = n;
                         array[1].iovBase_ = buffer1;
                         array[1].iovLen_ = buffer1.remaining();
-                        writev(cd, head, 2);
+                        array[0].write();
+                        array[1].write();
+                        writev(cd, head.getPointer(), 2);
                     }
                     buffer0.clear();
                     buffer1.clear();
@@ -0,0 +1,118 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Allocates direct buffers on the memory obtained by malloc() and frees them by free() explicitly.
+ *
+ * The buffers are neither tracked by the JDK nor freed by GC, so each buffer must be passed to
+ * {@link #free(java.nio.ByteBuffer)} exactly once. The total bytes of the live buffers are capped;
+ * an allocation beyond the cap, or one which malloc() fails, is rejected with
+ * {@link net.ihiroky.uds4j.OutOfNativeMemoryException}.
+ *
+ * This class is thread safe.
+ */
+final class NativeMemoryAllocator {
+
+    private final long maxBytes_;
+    private final AtomicLong allocatedBytes_;
+    private final ConcurrentMap<Long, Integer> buffers_;
+
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    private static final NativeMemoryAllocator DEFAULT = new NativeMemoryAllocator(DEFAULT_MAX_BYTES);
+
+    NativeMemoryAllocator(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("The maxBytes must not be negative.");
+        }
+        maxBytes_ = maxBytes;
+        allocatedBytes_ = new AtomicLong();
+        buffers_ = new ConcurrentHashMap<Long, Integer>();
+    }
+
+    /**
+     * Returns the allocator shared in this library.
+     *
+     * @return the allocator shared in this library
+     */
+    static NativeMemoryAllocator getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Allocates a direct buffer.
+     *
+     * @param size the capacity of the buffer
+     * @return the buffer
+     * @throws net.ihiroky.uds4j.OutOfNativeMemoryException if the allocation exceeds the cap or malloc() fails
+     */
+    ByteBuffer allocate(int size) throws OutOfNativeMemoryException {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must not be negative.");
+        }
+        for (;;) {
+            long allocated = allocatedBytes_.get();
+            if (allocated + size > maxBytes_) {
+                throw new OutOfNativeMemoryException("The native memory exceeds the cap " + maxBytes_
+                        + " bytes (allocated: " + allocated + ", requested: " + size + ").");
+            }
+            if (allocatedBytes_.compareAndSet(allocated, allocated + size)) {
+                break;
+            }
+        }
+
+        // malloc(0) may return NULL, so allocate one byte at least.
+        long address = Native.malloc(Math.max(size, 1));
+        if (address == 0) {
+            allocatedBytes_.addAndGet(-size);
+            throw new OutOfNativeMemoryException("malloc() failed to allocate " + size + " bytes.");
+        }
+        buffers_.put(address, size);
+        return new Pointer(address).getByteBuffer(0, size);
+    }
+
+    /**
+     * Frees the buffer allocated by this allocator. The buffer must not be used after this call.
+     *
+     * @param buffer the buffer
+     * @return true if the buffer is freed, or false if the buffer is not allocated by this allocator
+     */
+    boolean free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return false;
+        }
+        long address = Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(buffer));
+        int size = buffer.capacity();
+        // Compare the capacity too, so a slice at the head of the buffer is not freed.
+        if (!buffers_.remove(address, size)) {
+            return false;
+        }
+        Native.free(address);
+        allocatedBytes_.addAndGet(-size);
+        return true;
+    }
+
+    /**
+     * Returns the total bytes of the live buffers.
+     *
+     * @return the total bytes of the live buffers
+     */
+    long allocatedBytes() {
+        return allocatedBytes_.get();
+    }
+
+    /**
+     * Returns the cap of the total bytes of the live buffers.
+     *
+     * @return the cap of the total bytes of the live buffers
+     */
+    long maxBytes() {
+        return maxBytes_;
+    }
+}
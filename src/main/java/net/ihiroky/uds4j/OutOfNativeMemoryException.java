@@ -0,0 +1,22 @@
+package net.ihiroky.uds4j;
+
+import java.io.IOException;
+
+/**
+ * Signals that the native memory for the I/O buffers can not be allocated, because the cap of
+ * {@link net.ihiroky.uds4j.NativeMemoryAllocator} is reached or malloc() fails. The operation
+ * which requires the buffer is rejected; the caller may retry it after some buffers are released.
+ */
+public class OutOfNativeMemoryException extends IOException {
+
+    private static final long serialVersionUID = 3571562294315468117L;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param message the detail message
+     */
+    public OutOfNativeMemoryException(String message) {
+        super(message);
+    }
+}
@@ -1,5 +1,7 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.Pointer;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
@@ -10,12 +12,15 @@ import java.nio.channels.SelectionKey;
 /**
  * An implementation of {@link java.nio.channels.GatheringByteChannel} and
  * {@link java.nio.channels.ScatteringByteChannel} for unix domain sockets.
- *
- * TODO send/recv credential
  */
 public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChannel
         implements GatheringByteChannel, ScatteringByteChannel {
 
+    /**
+     * The buffer returned by {@link #read(ReceiveBufferAllocator)} when the channel has reached end-of-stream.
+     */
+    public static final ByteBuffer END_OF_STREAM = ByteBuffer.allocate(0).asReadOnlyBuffer();
+
     /**
      * Constructs a new instance.
      *
@@ -53,41 +58,83 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
      */
     protected abstract boolean ensureWriteOpen() throws IOException;
 
+    /**
+     * {@inheritDoc}
+     *
+     * Any number of the buffers is accepted; readv is called for each {@code IOV_MAX} buffers
+     * until a short read. Returns 0 without an exception if no data is available in non-blocking mode.
+     */
     @Override
     public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
-        if (length > Native.IOV_MAX) {
-            throw new IOException("The length must be less than " + Native.IOV_MAX);
-        }
-
+        checkBounds(dsts, offset, length);
         if (!ensureReadOpen()) {
             return -1L;
         }
 
-        boolean fail = true;
         long read = 0L;
+        boolean eof = false;
         IOVecBuffer vec = IOVecBuffer.getInstance();
+        try {
+            begin();
+            int end = offset + length;
+            for (int i = offset; i < end;) {
+                int count = Math.min(end - i, Native.IOV_MAX);
+                long requested = remaining(dsts, i, count);
+                i += count;
+                if (requested == 0L) {
+                    continue;
+                }
+                long n = readv(dsts, i - count, count, vec);
+                if (n == -1L) {
+                    break;
+                }
+                if (n == 0L) {
+                    // EOF according to 'man 2 readv'
+                    eof = (read == 0L);
+                    break;
+                }
+                read += n;
+                if (n < requested) {
+                    break;
+                }
+            }
+        } finally {
+            end(read > 0L);
+        }
+        return eof ? -1L : read;
+    }
+
+    /**
+     * Calls readv for the buffers whose number is {@code IOV_MAX} at most.
+     *
+     * @return the number of bytes read, or -1 if no data is available in non-blocking mode
+     */
+    private long readv(ByteBuffer[] dsts, int offset, int length, IOVecBuffer vec) throws IOException {
+        vec.reserve(length);
         try {
             for (int i = 0; i < length; i++) {
                 vec.set(i, dsts[i + offset]);
             }
 
-            begin();
-
-            read = Native.readv(fd_, vec.headReference(), length).longValue();
-            if (read == -1) {
-                throw new IOException(Native.getLastError());
+            long read = Native.readv(fd_, vec.table(), length).longValue();
+            if (read == -1L) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    return -1L;
+                }
+                throw ErrnoException.of(errno);
             }
 
             long left = read;
             for (int i = 0; i < length && left > 0; i++) {
-                ByteBuffer dst = dsts[i];
+                ByteBuffer dst = dsts[i + offset];
                 int position = dst.position();
                 int remaining = dst.remaining();
                 int n = (left > remaining) ? remaining : (int) left;
                 if (dst.isDirect()) {
                     dst.position(position + n);
                 } else {
-                    ByteBuffer iovBase = vec.get(i).iovBase_;
+                    ByteBuffer iovBase = vec.base(i);
                     iovBase.limit(n);
                     dst.put(iovBase);
                 }
@@ -95,11 +142,8 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
             }
             return read;
         } finally {
-            end(read > 0L);
-            if (fail) {
-                for (int i = 0; i < length; i++) {
-                    vec.clear(i, dsts[i + offset]);
-                }
+            for (int i = 0; i < length; i++) {
+                vec.clear(i, dsts[i + offset]);
             }
         }
     }
@@ -109,50 +153,80 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
         return read(dsts, 0, dsts.length);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * Any number of the buffers is accepted; writev is called for each {@code IOV_MAX} buffers
+     * until a short write. Returns 0 without an exception if the socket buffer is full in non-blocking mode.
+     */
     @Override
     public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
-        if (length > Native.IOV_MAX) {
-            throw new IOException("The length must be less than " + Native.IOV_MAX);
-        }
-
+        checkBounds(srcs, offset, length);
         if (!ensureWriteOpen()) {
             throw new ClosedChannelException();
         }
 
         long written = 0L;
-        boolean fail = true;
         IOVecBuffer vec = IOVecBuffer.getInstance();
+        try {
+            begin();
+            int end = offset + length;
+            for (int i = offset; i < end;) {
+                int count = Math.min(end - i, Native.IOV_MAX);
+                long requested = remaining(srcs, i, count);
+                i += count;
+                if (requested == 0L) {
+                    continue;
+                }
+                long n = writev(srcs, i - count, count, vec);
+                if (n == -1L) {
+                    break;
+                }
+                written += n;
+                if (n < requested) {
+                    break;
+                }
+            }
+        } finally {
+            end(written > 0L);
+        }
+        return written;
+    }
+
+    /**
+     * Calls writev for the buffers whose number is {@code IOV_MAX} at most.
+     *
+     * @return the number of bytes written, or -1 if the socket buffer is full in non-blocking mode
+     */
+    private long writev(ByteBuffer[] srcs, int offset, int length, IOVecBuffer vec) throws IOException {
+        vec.reserve(length);
         try {
             for (int i = 0; i < length; i++) {
                 vec.set(i, srcs[i + offset]);
             }
 
-            begin();
-
-            written = Native.writev(fd_, vec.headReference(), length).longValue();
-            if (written == -1) {
-                throw new IOException(Native.getLastError());
+            long written = Native.writev(fd_, vec.table(), length).longValue();
+            if (written == -1L) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    return -1L;
+                }
+                throw ErrnoException.of(errno);
             }
 
             long left = written;
             for (int i = 0; i < length && left > 0; i++) {
                 ByteBuffer src = srcs[i + offset];
-                vec.clear(i, src);
                 int position = src.position();
                 int remaining = src.remaining();
                 int n = (left > remaining) ? remaining : (int) left;
                 src.position(position + n);
                 left -= n;
             }
-
-            fail = false;
             return written;
         } finally {
-            end(written > 0L);
-            if (fail) {
-                for (int i = 0; i < length; i++) {
-                    vec.clear(i, srcs[i + offset]);
-                }
+            for (int i = 0; i < length; i++) {
+                vec.clear(i, srcs[i + offset]);
             }
         }
     }
@@ -162,6 +236,121 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
         return write(srcs, 0, srcs.length);
     }
 
+    private static void checkBounds(ByteBuffer[] buffers, int offset, int length) {
+        if (offset < 0 || length < 0 || offset > buffers.length - length) {
+            throw new IndexOutOfBoundsException(
+                    "offset: " + offset + ", length: " + length + ", buffers: " + buffers.length);
+        }
+    }
+
+    private static long remaining(ByteBuffer[] buffers, int offset, int length) {
+        long remaining = 0L;
+        for (int i = offset; i < offset + length; i++) {
+            remaining += buffers[i].remaining();
+        }
+        return remaining;
+    }
+
+    /**
+     * Reads bytes into a pooled buffer whose size is chosen by the allocator.
+     * The returned buffer is ready to be read, and must be returned to the pool by
+     * {@link net.ihiroky.uds4j.ReceiveBufferAllocator#release(java.nio.ByteBuffer)}.
+     *
+     * @param allocator the allocator for this channel
+     * @return the buffer containing the bytes read, null if no bytes are available in non-blocking mode,
+     *         or {@link #END_OF_STREAM} if the channel has reached end-of-stream
+     * @throws IOException if an I/O error occurs
+     */
+    public ByteBuffer read(ReceiveBufferAllocator allocator) throws IOException {
+        if (!ensureReadOpen()) {
+            return END_OF_STREAM;
+        }
+        ByteBuffer buffer = allocator.allocate(fd_);
+        int read = -1;
+        try {
+            read = read(buffer);
+        } finally {
+            if (read <= 0) {
+                allocator.release(buffer);
+            }
+        }
+        if (read == 0) {
+            return null;
+        }
+        if (read == -1) {
+            return END_OF_STREAM;
+        }
+        allocator.record(read);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads bytes repeatedly into pooled buffers and passes them to the handler until no more bytes
+     * are available, or the budget runs out. This is required to handle a channel registered to
+     * {@link net.ihiroky.uds4j.EPollSelector} for {@link java.nio.channels.SelectionKey#OP_READ}, which is
+     * edge-triggered. If the budget runs out and the key is registered to {@link net.ihiroky.uds4j.EPollSelector},
+     * the key is requeued so that the rest is read in the next selection, after the other ready channels.
+     *
+     * @param key the key of this channel, or null
+     * @param allocator the allocator for this channel
+     * @param handler the handler to handle the bytes read
+     * @param maxBytes the maximum number of the bytes to be read
+     * @param maxReads the maximum number of the read calls
+     * @return the result
+     * @throws IOException if an I/O error occurs
+     */
+    public DrainResult drain(SelectionKey key, ReceiveBufferAllocator allocator, ReceiveHandler handler,
+                             long maxBytes, int maxReads) throws IOException {
+        if (maxBytes <= 0L || maxReads <= 0) {
+            throw new IllegalArgumentException("The budget must be positive.");
+        }
+        if (!ensureReadOpen()) {
+            return DrainResult.END_OF_STREAM;
+        }
+
+        long bytes = 0L;
+        for (int reads = 0; reads < maxReads && bytes < maxBytes; reads++) {
+            ByteBuffer buffer = allocator.allocate(fd_);
+            int requested = buffer.remaining();
+            int read;
+            try {
+                read = read(buffer);
+                if (read > 0) {
+                    allocator.record(read);
+                    buffer.flip();
+                    handler.received(this, buffer);
+                }
+            } finally {
+                allocator.release(buffer);
+            }
+            if (read == 0) {
+                return DrainResult.DRAINED;
+            }
+            if (read == -1) {
+                return DrainResult.END_OF_STREAM;
+            }
+            bytes += read;
+            if (read < requested && isStream()) {
+                // A short read empties the socket buffer, so the next read gets EAGAIN.
+                return DrainResult.DRAINED;
+            }
+        }
+
+        if (key instanceof EPollSelectionKey) {
+            EPollSelectionKey epollKey = (EPollSelectionKey) key;
+            ((EPollSelector) epollKey.selector()).requeue(epollKey, SelectionKey.OP_READ);
+        }
+        return DrainResult.BUDGET_EXHAUSTED;
+    }
+
+    /**
+     * Returns true if the socket of this channel is a stream socket.
+     */
+    boolean isStream() {
+        return true;
+    }
+
     @Override
     public int read(ByteBuffer dst) throws IOException {
         if (!ensureReadOpen()) {
@@ -172,10 +361,12 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
             begin();
             read = Native.read(fd_, dst, dst.remaining());
             if (read == -1) {
-                if (Native.errno() == Native.EAGAIN) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    read = 0;
                     return 0;
                 }
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(errno);
             }
         } finally {
             end(read > 0);
@@ -197,7 +388,12 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
             begin();
             written = Native.write(fd_, src, src.remaining());
             if (written == -1) {
-                throw new IOException(Native.getLastError());
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    written = 0;
+                    return 0;
+                }
+                throw ErrnoException.of(errno);
             }
         } finally {
             end(written > 0);
@@ -206,4 +402,136 @@ public abstract class ReadWriteUnixDomainChannel extends AbstractUnixDomainChann
         src.position(src.position() + written);
         return written;
     }
+
+    /**
+     * Writes bytes with the file descriptors in the control message buffer by sendmsg.
+     *
+     * @param src the buffer from which the bytes are to be retrieved
+     * @param control the control message buffer holding the file descriptors to be sent
+     * @return the number of the bytes written, or 0 if the socket buffer is full in non-blocking mode;
+     *         the file descriptors are sent only if some bytes are written
+     * @throws java.lang.IllegalArgumentException if {@code src} is empty but {@code control} holds some
+     *         file descriptors on a stream socket, which would drop them
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int write(ByteBuffer src, ControlMessageBuffer control) throws IOException {
+        if (!src.hasRemaining() && control.count() > 0 && isStream()) {
+            throw new IllegalArgumentException("At least one byte is required to send the file descriptors.");
+        }
+        if (!ensureWriteOpen()) {
+            throw new ClosedChannelException();
+        }
+        long written = sendmsg(src, null, control);
+        return (written == -1L) ? 0 : (int) written;
+    }
+
+    /**
+     * Reads bytes and the file descriptors passed with them by recvmsg. The control message buffer
+     * is cleared, and then holds the received file descriptors, and the credentials of the peer
+     * if {@link net.ihiroky.uds4j.SocketOptions#SO_PASSCRED} is enabled.
+     *
+     * @param dst the buffer into which the bytes are to be transferred
+     * @param control the control message buffer into which the file descriptors are to be transferred
+     * @return the number of the bytes read, 0 if no bytes are available in non-blocking mode,
+     *         or -1 if the channel has reached end-of-stream
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public int read(ByteBuffer dst, ControlMessageBuffer control) throws IOException {
+        if (!ensureReadOpen()) {
+            control.clear();
+            return -1;
+        }
+        long read = recvmsg(dst, null, control);
+        if (read == -1L) {
+            return 0;
+        }
+        return (read == 0L && isStream()) ? -1 : (int) read;
+    }
+
+    /**
+     * Calls sendmsg with the buffer and the control messages.
+     *
+     * @param name the destination address, or null
+     * @return the number of bytes written, or -1 if the socket buffer is full in non-blocking mode
+     */
+    long sendmsg(ByteBuffer src, Native.SockAddrUn name, ControlMessageBuffer control) throws IOException {
+        int controlLength = control.prepareSend();
+        IOVecBuffer vec = IOVecBuffer.getInstance();
+        long written = 0L;
+        try {
+            begin();
+            vec.set(0, src);
+            Pointer namePointer = null;
+            int nameLength = 0;
+            if (name != null) {
+                name.write();
+                namePointer = name.getPointer();
+                nameLength = name.size();
+            }
+            Pointer msg = MessageHeader.getInstance().set(namePointer, nameLength, vec.table(), 1,
+                    (controlLength > 0) ? control.pointer() : null, controlLength);
+            written = Native.sendmsg(fd_, msg, 0).longValue();
+            if (written == -1L) {
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    return -1L;
+                }
+                throw ErrnoException.of(errno);
+            }
+        } finally {
+            vec.clear(0, src);
+            end(written > 0L);
+        }
+        src.position(src.position() + (int) written);
+        return written;
+    }
+
+    /**
+     * Calls recvmsg with the buffer and the control message buffer.
+     *
+     * @param name the buffer for the source address, or null
+     * @return the number of bytes read, or -1 if no data is available in non-blocking mode
+     */
+    long recvmsg(ByteBuffer dst, Native.SockAddrUn name, ControlMessageBuffer control) throws IOException {
+        IOVecBuffer vec = IOVecBuffer.getInstance();
+        MessageHeader header = MessageHeader.getInstance();
+        long read = 0L;
+        try {
+            begin();
+            vec.set(0, dst);
+            Pointer namePointer = null;
+            int nameLength = 0;
+            if (name != null) {
+                name.clear();
+                namePointer = name.getPointer();
+                nameLength = name.size();
+            }
+            Pointer msg = header.set(namePointer, nameLength, vec.table(), 1, control.pointer(), control.capacity());
+            read = Native.recvmsg(fd_, msg, Native.MSG_CMSG_CLOEXEC).longValue();
+            if (read == -1L) {
+                int errno = Native.errno();
+                control.clear();
+                if (errno == Native.EAGAIN) {
+                    return -1L;
+                }
+                throw ErrnoException.of(errno);
+            }
+            control.parseReceived(header.controlLength(), header.flags());
+            if (name != null) {
+                name.read();
+            }
+            int n = (int) read;
+            if (dst.isDirect()) {
+                dst.position(dst.position() + n);
+            } else if (n > 0) {
+                ByteBuffer base = vec.base(0);
+                base.limit(n);
+                dst.put(base);
+            }
+        } finally {
+            vec.clear(0, dst);
+            end(read > 0L);
+        }
+        return read;
+    }
 }
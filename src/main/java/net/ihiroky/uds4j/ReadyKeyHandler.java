@@ -0,0 +1,20 @@
+package net.ihiroky.uds4j;
+
+/**
+ * A callback to handle the keys selected by
+ * {@link net.ihiroky.uds4j.EPollSelector#selectAndDispatch(ReadyKeyHandler, long)}
+ * and {@link net.ihiroky.uds4j.EPollSelector#selectNowAndDispatch(ReadyKeyHandler)}.
+ */
+public interface ReadyKeyHandler {
+
+    /**
+     * Handles the key whose channel is ready for some operations. The ready operations
+     * of the key are set to the ones reported by this selection only.
+     *
+     * This method is called by the selecting thread. An exception thrown by this method
+     * aborts the selection, and the keys not handled yet are not reported.
+     *
+     * @param key the key whose channel is ready
+     */
+    void handle(EPollSelectionKey key);
+}
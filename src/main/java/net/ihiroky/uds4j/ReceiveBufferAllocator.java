@@ -0,0 +1,139 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.ptr.IntByReference;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Chooses the size of the pooled buffer to receive bytes for a channel,
+ * used by {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#read(ReceiveBufferAllocator)}.
+ *
+ * The size is predicted from the recent reads: it grows quickly when a read fills the buffer,
+ * and shrinks by one step when two successive reads are small enough for the smaller size.
+ * If FIONREAD is enabled, the number of the bytes available in the socket is used instead
+ * of the prediction. The sizes are powers of two, which match the size classes of the pool.
+ *
+ * An instance holds the prediction state of a channel, so it must not be shared among channels.
+ * This class is not thread safe.
+ */
+public final class ReceiveBufferAllocator {
+
+    private final int minShift_;
+    private final int maxShift_;
+    private final boolean useFionread_;
+    private final BufferArena arena_;
+    private int shift_;
+    private boolean decreaseNow_;
+
+    /** The default minimum size. */
+    public static final int DEFAULT_MINIMUM = 64;
+
+    /** The default initial size. */
+    public static final int DEFAULT_INITIAL = 1024;
+
+    /** The default maximum size. */
+    public static final int DEFAULT_MAXIMUM = 64 * 1024;
+
+    private static final int INCREASE_STEPS = 2;
+
+    private static final ThreadLocal<IntByReference> AVAILABLE = new ThreadLocal<IntByReference>() {
+        @Override
+        protected IntByReference initialValue() {
+            return new IntByReference();
+        }
+    };
+
+    /**
+     * Constructs a new instance with the default sizes, which does not use FIONREAD.
+     */
+    public ReceiveBufferAllocator() {
+        this(DEFAULT_MINIMUM, DEFAULT_INITIAL, DEFAULT_MAXIMUM, false);
+    }
+
+    /**
+     * Constructs a new instance. The sizes are rounded up to powers of two.
+     *
+     * @param minimum the minimum size
+     * @param initial the initial size
+     * @param maximum the maximum size, which must not be greater than 1MB
+     * @param useFionread true if the size is decided by FIONREAD
+     */
+    public ReceiveBufferAllocator(int minimum, int initial, int maximum, boolean useFionread) {
+        if (minimum <= 0 || minimum > initial || initial > maximum) {
+            throw new IllegalArgumentException("The sizes must be 0 < minimum <= initial <= maximum.");
+        }
+        if (maximum > SlabBufferPool.MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("The maximum must not be greater than "
+                    + SlabBufferPool.MAX_BUFFER_SIZE);
+        }
+        minShift_ = shift(minimum);
+        maxShift_ = shift(maximum);
+        shift_ = shift(initial);
+        useFionread_ = useFionread;
+        arena_ = BufferArena.getInstance();
+    }
+
+    private static int shift(int size) {
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    /**
+     * Returns the predicted size of the next read.
+     *
+     * @return the predicted size of the next read
+     */
+    public int nextSize() {
+        return 1 << shift_;
+    }
+
+    /**
+     * Records the number of the bytes read to update the prediction.
+     *
+     * @param bytes the number of the bytes read
+     */
+    public void record(int bytes) {
+        if (bytes >= (1 << shift_)) {
+            shift_ = Math.min(shift_ + INCREASE_STEPS, maxShift_);
+            decreaseNow_ = false;
+        } else if (shift_ > minShift_ && bytes <= (1 << (shift_ - 1))) {
+            if (decreaseNow_) {
+                shift_--;
+                decreaseNow_ = false;
+            } else {
+                decreaseNow_ = true;
+            }
+        } else {
+            decreaseNow_ = false;
+        }
+    }
+
+    /**
+     * Acquires the pooled buffer to read from the file descriptor.
+     */
+    ByteBuffer allocate(int fd) throws OutOfNativeMemoryException {
+        int size = nextSize();
+        if (useFionread_) {
+            IntByReference available = AVAILABLE.get();
+            if (Native.ioctl(fd, Native.FIONREAD, available) == 0) {
+                int n = available.getValue();
+                int minimum = 1 << minShift_;
+                int maximum = 1 << maxShift_;
+                size = (n < minimum) ? minimum : (n > maximum ? maximum : n);
+            }
+        }
+        return arena_.acquire(size);
+    }
+
+    /**
+     * Returns the buffer obtained by {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#read(ReceiveBufferAllocator)}
+     * to the pool. The buffer must not be used after this call.
+     *
+     * @param buffer the buffer
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == ReadWriteUnixDomainChannel.END_OF_STREAM) {
+            return;
+        }
+        arena_.release(buffer);
+    }
+}
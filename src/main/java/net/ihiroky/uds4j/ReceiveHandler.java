@@ -0,0 +1,20 @@
+package net.ihiroky.uds4j;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A callback to handle the bytes read by
+ * {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel#drain(java.nio.channels.SelectionKey,
+ * ReceiveBufferAllocator, ReceiveHandler, long, int)}.
+ */
+public interface ReceiveHandler {
+
+    /**
+     * Handles the bytes read from the channel. The buffer is returned to the pool after this
+     * method returns, so the bytes must be consumed or copied in this method.
+     *
+     * @param channel the channel from which the bytes are read
+     * @param buffer the buffer containing the bytes read
+     */
+    void received(ReadWriteUnixDomainChannel channel, ByteBuffer buffer);
+}
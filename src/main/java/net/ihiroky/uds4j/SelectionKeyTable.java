@@ -0,0 +1,119 @@
+package net.ihiroky.uds4j;
+
+import java.util.Arrays;
+
+/**
+ * Holds {@link net.ihiroky.uds4j.EPollSelectionKey} registered to a selector in a growable array.
+ *
+ * Each key is assigned a slot in the array. The slot and the generation of the slot are
+ * packed into the value stored in epoll_data.u64, so the key is resolved from an epoll event
+ * without hashing. The generation is incremented when a slot is released, which rejects
+ * stale events for a key already removed from the table.
+ *
+ * This class is not thread safe.
+ */
+final class SelectionKeyTable {
+
+    private EPollSelectionKey[] keys_;
+    private int[] generations_;
+    private int[] freeSlots_;
+    private int freeCount_;
+    private int usedSlots_;
+    private int size_;
+
+    /** The epoll data which never refers to any key. */
+    static final long NO_KEY = -1L;
+
+    private static final int SLOT_BITS = 32;
+    private static final long SLOT_MASK = 0xFFFFFFFFL;
+    private static final int DEFAULT_CAPACITY = 64;
+
+    SelectionKeyTable() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    SelectionKeyTable(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("The initialCapacity must be positive.");
+        }
+        keys_ = new EPollSelectionKey[initialCapacity];
+        generations_ = new int[initialCapacity];
+        freeSlots_ = new int[initialCapacity];
+    }
+
+    /**
+     * Adds the key to this table and stores the epoll data for the key into the key.
+     *
+     * @param key the key
+     * @return the epoll data which refers to the key
+     */
+    long add(EPollSelectionKey key) {
+        int slot;
+        if (freeCount_ > 0) {
+            slot = freeSlots_[--freeCount_];
+        } else {
+            if (usedSlots_ == keys_.length) {
+                grow();
+            }
+            slot = usedSlots_++;
+        }
+        keys_[slot] = key;
+        size_++;
+
+        long data = ((long) generations_[slot] << SLOT_BITS) | slot;
+        key.setEPollData(data);
+        return data;
+    }
+
+    /**
+     * Removes the key from this table.
+     *
+     * @param key the key
+     * @return true if the key is removed
+     */
+    boolean remove(EPollSelectionKey key) {
+        long data = key.epollData();
+        int slot = (int) (data & SLOT_MASK);
+        if (slot < 0 || slot >= usedSlots_ || keys_[slot] != key) {
+            return false;
+        }
+        keys_[slot] = null;
+        generations_[slot]++;
+        freeSlots_[freeCount_++] = slot;
+        size_--;
+        key.setEPollData(NO_KEY);
+        return true;
+    }
+
+    /**
+     * Returns the key which the epoll data refers to.
+     *
+     * @param data the epoll data
+     * @return the key, or null if the data is stale
+     */
+    EPollSelectionKey get(long data) {
+        int slot = (int) (data & SLOT_MASK);
+        if (slot < 0 || slot >= usedSlots_) {
+            return null;
+        }
+        return (generations_[slot] == (int) (data >>> SLOT_BITS)) ? keys_[slot] : null;
+    }
+
+    int size() {
+        return size_;
+    }
+
+    int capacity() {
+        return keys_.length;
+    }
+
+    private void grow() {
+        int capacity = keys_.length << 1;
+        if (capacity < 0) {
+            throw new IllegalStateException("Too many keys.");
+        }
+        keys_ = Arrays.copyOf(keys_, capacity);
+        generations_ = Arrays.copyOf(generations_, capacity);
+        freeSlots_ = Arrays.copyOf(freeSlots_, capacity);
+    }
+}
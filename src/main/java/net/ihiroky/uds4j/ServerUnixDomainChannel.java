@@ -4,10 +4,12 @@ import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.AlreadyBoundException;
 import java.nio.channels.ClosedChannelException;
+import java.nio.channels.IllegalBlockingModeException;
 import java.nio.channels.NetworkChannel;
 import java.nio.channels.NotYetBoundException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.UnsupportedAddressTypeException;
+import java.util.List;
 
 /**
  * A selectable channel for accepting unix domain sockets.
@@ -71,10 +73,10 @@ public class ServerUnixDomainChannel extends AbstractUnixDomainChannel implement
             sun.sunFamily_ = Native.AF_UNIX;
             sun.setSunPath(uds.getPath());
             if (Native.bind(fd_, sun, sun.size()) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             if (Native.listen(fd_, backlog) == -1) {
-                throw new IOException(Native.getLastError());
+                throw ErrnoException.of(Native.errno());
             }
             localAddress_ = uds;
         }
@@ -82,7 +84,8 @@ public class ServerUnixDomainChannel extends AbstractUnixDomainChannel implement
     }
 
     /**
-     * Accepts a connection made to this channel's socket.
+     * Accepts a connection made to this channel's socket. The addresses of the accepted
+     * channel are looked up when they are requested.
      *
      * @return the socket channel for the new connection,
      *         or null if this channel is in non-blocking mode
@@ -92,37 +95,90 @@ public class ServerUnixDomainChannel extends AbstractUnixDomainChannel implement
      * @throws java.io.IOException if some other I/O error occurs
      */
     public synchronized ClientUnixDomainChannel accept() throws IOException {
-        synchronized (stateLock_) {
-            if (!isOpen()) {
-                throw new ClosedChannelException();
-            }
-            if (localAddress_ == null) {
-                throw new NotYetBoundException();
-            }
-        }
+        ensureAcceptable();
 
         int client = -1;
         synchronized (acceptLock_) {
-            AddressBuffer buffer = AddressBuffer.getInstance();
-            Native.SockAddrUn sun = buffer.getAddress();
-            sun.clear();
-            sun.sunFamily_ = Native.AF_UNIX;
             try {
                 begin();
-                client = Native.accept(fd_, sun, buffer.getSize());
+                client = Native.accept4(fd_, null, null, Native.SOCK_CLOEXEC);
             } finally {
                 end(client != -1);
             }
             if (client == -1) {
-                throw new IOException(Native.getLastError());
+                int errno = Native.errno();
+                if (errno == Native.EAGAIN) {
+                    return null;
+                }
+                throw ErrnoException.of(errno);
             }
         }
+        return new ClientUnixDomainChannel(client, true);
+    }
 
-        ClientUnixDomainChannel channel = new ClientUnixDomainChannel(client, true);
+    /**
+     * Accepts the pending connections made to this channel's socket until no connection
+     * is available or the number of the accepted connections reaches {@code max}.
+     * The accepted channels are added to {@code channels} in non-blocking mode.
+     * The addresses of the accepted channels are looked up when they are requested.
+     *
+     * If an error occurs after some connections are accepted, the exception is thrown
+     * and the channels accepted before it are left in {@code channels}. The caller
+     * must take them over, or close them.
+     *
+     * @param channels the list to which the accepted channels are added
+     * @param max the maximum number of the connections to be accepted
+     * @return the number of the accepted connections
+     * @throws java.nio.channels.ClosedChannelException if this channel is closed
+     * @throws java.nio.channels.NotYetBoundException if this channel's socket has not yet been bound
+     * @throws java.nio.channels.IllegalBlockingModeException if this channel is in blocking mode
+     * @throws java.io.IOException if some other I/O error occurs
+     */
+    public synchronized int acceptAll(List<ClientUnixDomainChannel> channels, int max) throws IOException {
+        if (channels == null) {
+            throw new NullPointerException("channels");
+        }
+        if (max <= 0) {
+            throw new IllegalArgumentException("The max must be positive.");
+        }
+        if (isBlocking()) {
+            throw new IllegalBlockingModeException();
+        }
+        ensureAcceptable();
+
+        int accepted = 0;
+        synchronized (acceptLock_) {
+            try {
+                begin();
+                while (accepted < max) {
+                    int client = Native.accept4(fd_, null, null, Native.SOCK_NONBLOCK | Native.SOCK_CLOEXEC);
+                    if (client == -1) {
+                        int errno = Native.errno();
+                        if (errno == Native.EAGAIN) {
+                            break;
+                        }
+                        throw ErrnoException.of(errno);
+                    }
+                    ClientUnixDomainChannel channel = new ClientUnixDomainChannel(client, true);
+                    channel.configureNonBlockingFd();
+                    channels.add(channel);
+                    accepted++;
+                }
+            } finally {
+                end(accepted > 0);
+            }
+        }
+        return accepted;
+    }
 
-        // call get*Address() to cache the addresses.
-        channel.getLocalAddress();
-        channel.getRemoteAddress();
-        return channel;
+    private void ensureAcceptable() throws IOException {
+        synchronized (stateLock_) {
+            if (!isOpen()) {
+                throw new ClosedChannelException();
+            }
+            if (localAddress_ == null) {
+                throw new NotYetBoundException();
+            }
+        }
     }
 }
@@ -0,0 +1,394 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Pointer;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Provides the direct buffers for I/O operations by power-of-two size classes.
+ *
+ * Each size class from {@link #MIN_BUFFER_SIZE} to {@link #MAX_BUFFER_SIZE} has a free list
+ * as an array based stack, so acquiring and releasing a buffer is O(1) except that the release
+ * looks up the chunk of the buffer by its address with a binary search over the chunks.
+ * The buffers of a class are carved from a chunk allocated at once when the free list of the class is empty.
+ * The number of the buffers carved for each class and the total bytes of the chunks are capped;
+ * a request beyond the caps or larger than {@link #MAX_BUFFER_SIZE} is served by a buffer which
+ * is not pooled and is freed on release. If the allocator can't provide the memory, the request is
+ * rejected with {@link net.ihiroky.uds4j.OutOfNativeMemoryException}.
+ *
+ * The memory is obtained from {@link net.ihiroky.uds4j.NativeMemoryAllocator}. The chunks whose
+ * buffers are all free are returned to the allocator by {@link #trim()}, and all chunks are
+ * returned by {@link #close()}.
+ *
+ * This class is not thread safe except {@link #owns(java.nio.ByteBuffer)}, which reads an immutable
+ * snapshot of the chunks.
+ */
+final class SlabBufferPool {
+
+    private final NativeMemoryAllocator allocator_;
+    private final Chunk[][] freeChunks_;
+    private final int[][] freeSlots_;
+    private final int[] freeCounts_;
+    private final int[] carvedCounts_;
+    private final int maxBuffersPerClass_;
+    private final long maxTotalBytes_;
+    private long allocatedBytes_;
+
+    // The chunks sorted by the address, to look up the chunk of a released buffer.
+    // Replaced as a whole when a chunk is added or freed.
+    private volatile ChunkTable table_;
+
+    /** The size of the smallest size class. */
+    static final int MIN_BUFFER_SIZE = 64;
+
+    /** The size of the largest size class. */
+    static final int MAX_BUFFER_SIZE = 1024 * 1024;
+
+    static final int DEFAULT_MAX_BUFFERS_PER_CLASS = Native.IOV_MAX;
+    static final long DEFAULT_MAX_TOTAL_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_BUFFER_SIZE);
+
+    /** The number of the size classes. */
+    static final int CLASSES = Integer.numberOfTrailingZeros(MAX_BUFFER_SIZE) - MIN_SHIFT + 1;
+
+    private static final int CHUNK_SIZE = MAX_BUFFER_SIZE;
+
+    /**
+     * A block of memory from which the buffers of a size class are carved.
+     */
+    private static final class Chunk {
+        final ByteBuffer memory_;
+        final long address_;
+        final int sizeClass_;
+        final ByteBuffer[] buffers_;
+        final boolean[] inUse_;
+        int freeBuffers_;
+        boolean trimmed_;
+
+        Chunk(ByteBuffer memory, int sizeClass, int buffers) {
+            memory_ = memory;
+            address_ = address(memory);
+            sizeClass_ = sizeClass;
+            buffers_ = new ByteBuffer[buffers];
+            inUse_ = new boolean[buffers];
+            freeBuffers_ = buffers;
+        }
+    }
+
+    /**
+     * The chunks sorted by the address.
+     */
+    private static final class ChunkTable {
+        final Chunk[] chunks_;
+        final long[] addresses_;
+
+        ChunkTable(Chunk[] chunks) {
+            chunks_ = chunks;
+            addresses_ = new long[chunks.length];
+            for (int i = 0; i < chunks.length; i++) {
+                addresses_[i] = chunks[i].address_;
+            }
+        }
+    }
+
+    private static final ChunkTable EMPTY_TABLE = new ChunkTable(new Chunk[0]);
+
+    SlabBufferPool() {
+        this(NativeMemoryAllocator.getDefault(), DEFAULT_MAX_BUFFERS_PER_CLASS, DEFAULT_MAX_TOTAL_BYTES);
+    }
+
+    SlabBufferPool(NativeMemoryAllocator allocator, int maxBuffersPerClass, long maxTotalBytes) {
+        if (allocator == null) {
+            throw new NullPointerException("allocator");
+        }
+        if (maxBuffersPerClass <= 0) {
+            throw new IllegalArgumentException("The maxBuffersPerClass must be positive.");
+        }
+        if (maxTotalBytes < 0) {
+            throw new IllegalArgumentException("The maxTotalBytes must not be negative.");
+        }
+        allocator_ = allocator;
+        freeChunks_ = new Chunk[CLASSES][];
+        freeSlots_ = new int[CLASSES][];
+        freeCounts_ = new int[CLASSES];
+        carvedCounts_ = new int[CLASSES];
+        table_ = EMPTY_TABLE;
+        maxBuffersPerClass_ = maxBuffersPerClass;
+        maxTotalBytes_ = maxTotalBytes;
+    }
+
+    /**
+     * Returns the index of the size class which holds the size.
+     *
+     * @param size the size
+     * @return the index of the size class, or -1 if the size is larger than {@link #MAX_BUFFER_SIZE}
+     */
+    static int sizeClass(int size) {
+        if (size <= MIN_BUFFER_SIZE) {
+            return 0;
+        }
+        if (size > MAX_BUFFER_SIZE) {
+            return -1;
+        }
+        return (Integer.SIZE - Integer.numberOfLeadingZeros(size - 1)) - MIN_SHIFT;
+    }
+
+    static int classSize(int sizeClass) {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+
+    private static long address(ByteBuffer buffer) {
+        return Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(buffer));
+    }
+
+    /**
+     * Acquires a direct buffer whose position is 0 and limit is {@code size}.
+     *
+     * @param size the required size
+     * @return the buffer
+     * @throws net.ihiroky.uds4j.OutOfNativeMemoryException if the allocator can't provide the memory
+     */
+    ByteBuffer acquire(int size) throws OutOfNativeMemoryException {
+        if (size < 0) {
+            throw new IllegalArgumentException("The size must not be negative.");
+        }
+        int sc = sizeClass(size);
+        if (sc == -1 || (freeCounts_[sc] == 0 && !carve(sc))) {
+            return allocator_.allocate(size);
+        }
+        int top = --freeCounts_[sc];
+        Chunk chunk = freeChunks_[sc][top];
+        int slot = freeSlots_[sc][top];
+        freeChunks_[sc][top] = null;
+        chunk.inUse_[slot] = true;
+        chunk.freeBuffers_--;
+        ByteBuffer buffer = chunk.buffers_[slot];
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    /**
+     * Returns the buffer acquired from this pool. The buffer which is not pooled is freed.
+     *
+     * @param buffer the buffer
+     * @throws java.lang.IllegalStateException if the pooled buffer is already released
+     * @throws java.lang.IllegalArgumentException if the buffer is a part of a pooled buffer
+     */
+    void release(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        long address = address(buffer);
+        Chunk chunk = findChunk(table_, address);
+        if (chunk == null) {
+            allocator_.free(buffer);
+            return;
+        }
+        int sc = chunk.sizeClass_;
+        long offset = address - chunk.address_;
+        if (buffer.capacity() != classSize(sc) || (offset & (classSize(sc) - 1)) != 0) {
+            throw new IllegalArgumentException("The buffer is not the one acquired from this pool: " + buffer);
+        }
+        int slot = (int) (offset >>> (sc + MIN_SHIFT));
+        if (!chunk.inUse_[slot]) {
+            throw new IllegalStateException("The buffer is already released: " + buffer);
+        }
+        chunk.inUse_[slot] = false;
+        chunk.freeBuffers_++;
+        push(sc, chunk, slot);
+    }
+
+    private void push(int sc, Chunk chunk, int slot) {
+        int count = freeCounts_[sc];
+        freeChunks_[sc][count] = chunk;
+        freeSlots_[sc][count] = slot;
+        freeCounts_[sc] = count + 1;
+    }
+
+    /**
+     * Returns true if the buffer is the one carved from the chunks of this pool. The buffer
+     * which is not pooled and the part of a pooled buffer are not owned by this pool.
+     * This method may be called without the synchronization of the other methods.
+     *
+     * @param buffer the buffer
+     * @return true if the buffer is the one carved from the chunks of this pool
+     */
+    boolean owns(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return false;
+        }
+        long address = address(buffer);
+        Chunk chunk = findChunk(table_, address);
+        if (chunk == null) {
+            return false;
+        }
+        int size = classSize(chunk.sizeClass_);
+        return buffer.capacity() == size && ((address - chunk.address_) & (size - 1)) == 0;
+    }
+
+    private static Chunk findChunk(ChunkTable table, long address) {
+        // Find the last chunk whose address is not greater than the address.
+        long[] addresses = table.addresses_;
+        int low = 0;
+        int high = addresses.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (addresses[middle] <= address) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        if (high < 0) {
+            return null;
+        }
+        Chunk chunk = table.chunks_[high];
+        return (address < chunk.address_ + chunk.memory_.capacity()) ? chunk : null;
+    }
+
+    private boolean carve(int sc) {
+        int size = classSize(sc);
+        int buffers = Math.min(CHUNK_SIZE / size, maxBuffersPerClass_ - carvedCounts_[sc]);
+        long available = maxTotalBytes_ - allocatedBytes_;
+        if (available < (long) buffers * size) {
+            buffers = (int) (available / size);
+        }
+        if (buffers <= 0) {
+            return false;
+        }
+
+        ByteBuffer memory;
+        try {
+            memory = allocator_.allocate(buffers * size);
+        } catch (OutOfNativeMemoryException oonme) {
+            // Try to allocate the requested buffer alone, which is smaller than the chunk.
+            return false;
+        }
+        allocatedBytes_ += memory.capacity();
+        Chunk chunk = new Chunk(memory, sc, buffers);
+        addChunk(chunk);
+        if (freeChunks_[sc] == null) {
+            freeChunks_[sc] = new Chunk[maxBuffersPerClass_];
+            freeSlots_[sc] = new int[maxBuffersPerClass_];
+        }
+        for (int i = 0; i < buffers; i++) {
+            memory.limit((i + 1) * size).position(i * size);
+            chunk.buffers_[i] = memory.slice();
+        }
+        memory.clear();
+        // Push in the reverse order, so the buffers are acquired from the head of the chunk.
+        for (int i = buffers - 1; i >= 0; i--) {
+            push(sc, chunk, i);
+        }
+        carvedCounts_[sc] += buffers;
+        return true;
+    }
+
+    private void addChunk(Chunk chunk) {
+        Chunk[] current = table_.chunks_;
+        Chunk[] chunks = Arrays.copyOf(current, current.length + 1);
+        int i = current.length;
+        while (i > 0 && chunks[i - 1].address_ > chunk.address_) {
+            chunks[i] = chunks[i - 1];
+            i--;
+        }
+        chunks[i] = chunk;
+        table_ = new ChunkTable(chunks);
+    }
+
+    /**
+     * Returns the chunks whose buffers are all free to the allocator.
+     *
+     * @return the number of the bytes returned to the allocator
+     */
+    long trim() {
+        Chunk[] chunks = table_.chunks_;
+        long bytes = 0L;
+        int kept = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk.freeBuffers_ == chunk.buffers_.length) {
+                chunk.trimmed_ = true;
+                bytes += free(chunk);
+            } else {
+                kept++;
+            }
+        }
+        if (kept == chunks.length) {
+            return 0L;
+        }
+        Chunk[] keptChunks = new Chunk[kept];
+        int k = 0;
+        for (Chunk chunk : chunks) {
+            if (!chunk.trimmed_) {
+                keptChunks[k++] = chunk;
+            }
+        }
+        table_ = new ChunkTable(keptChunks);
+
+        for (int sc = 0; sc < CLASSES; sc++) {
+            Chunk[] freeChunks = freeChunks_[sc];
+            if (freeChunks == null) {
+                continue;
+            }
+            int[] freeSlots = freeSlots_[sc];
+            int count = freeCounts_[sc];
+            int keptBuffers = 0;
+            for (int i = 0; i < count; i++) {
+                if (!freeChunks[i].trimmed_) {
+                    freeChunks[keptBuffers] = freeChunks[i];
+                    freeSlots[keptBuffers] = freeSlots[i];
+                    keptBuffers++;
+                }
+            }
+            Arrays.fill(freeChunks, keptBuffers, count, null);
+            freeCounts_[sc] = keptBuffers;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns all chunks to the allocator. The buffers acquired from this pool must not be
+     * used after this call.
+     */
+    void close() {
+        for (Chunk chunk : table_.chunks_) {
+            free(chunk);
+        }
+        table_ = EMPTY_TABLE;
+        Arrays.fill(freeChunks_, null);
+        Arrays.fill(freeSlots_, null);
+        Arrays.fill(freeCounts_, 0);
+    }
+
+    private long free(Chunk chunk) {
+        int size = chunk.memory_.capacity();
+        allocator_.free(chunk.memory_);
+        allocatedBytes_ -= size;
+        carvedCounts_[chunk.sizeClass_] -= chunk.buffers_.length;
+        return size;
+    }
+
+    /**
+     * Returns the number of the buffers in the free lists.
+     *
+     * @return the number of the buffers in the free lists
+     */
+    int count() {
+        int count = 0;
+        for (int c : freeCounts_) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the total bytes of the chunks allocated by this pool.
+     *
+     * @return the total bytes of the chunks
+     */
+    long allocatedBytes() {
+        return allocatedBytes_;
+    }
+}
@@ -0,0 +1,51 @@
+package net.ihiroky.uds4j;
+
+import java.io.IOException;
+
+/**
+ * A pipe through which splice() moves bytes between file descriptors without copying them
+ * to the user space. splice() requires a pipe at either end.
+ *
+ * A pipe is cached by the channel which uses it, so the channel must leave it empty after each transfer,
+ * or close it if it can't.
+ */
+final class SplicePipe {
+
+    private final int readFd_;
+    private final int writeFd_;
+
+    /** The default capacity of a pipe. */
+    static final int CAPACITY = 64 * 1024;
+
+    private SplicePipe(int readFd, int writeFd) {
+        readFd_ = readFd;
+        writeFd_ = writeFd;
+    }
+
+    /**
+     * Opens a new pipe.
+     *
+     * @return the new pipe
+     * @throws java.io.IOException if pipe2() fails
+     */
+    static SplicePipe open() throws IOException {
+        int[] fds = {-1, -1};
+        if (Native.pipe2(fds, Native.O_CLOEXEC) == -1) {
+            throw ErrnoException.of(Native.errno());
+        }
+        return new SplicePipe(fds[0], fds[1]);
+    }
+
+    int readFd() {
+        return readFd_;
+    }
+
+    int writeFd() {
+        return writeFd_;
+    }
+
+    void close() {
+        Native.close(readFd_);
+        Native.close(writeFd_);
+    }
+}
@@ -0,0 +1,65 @@
+package net.ihiroky.uds4j;
+
+import java.nio.channels.SelectionKey;
+
+/**
+ * The trigger mode of the epoll events installed for a {@link net.ihiroky.uds4j.EPollSelectionKey}.
+ *
+ * @see net.ihiroky.uds4j.EPollSelector#register(AbstractChannel, int, Object, int, TriggerMode)
+ * @see net.ihiroky.uds4j.EPollSelectionKey#triggerMode(TriggerMode)
+ */
+public enum TriggerMode {
+
+    /**
+     * Edge-triggered for {@link java.nio.channels.SelectionKey#OP_READ},
+     * {@link java.nio.channels.SelectionKey#OP_ACCEPT} and {@link java.nio.channels.SelectionKey#OP_WRITE},
+     * and level-triggered for {@link java.nio.channels.SelectionKey#OP_CONNECT}.
+     */
+    DEFAULT,
+
+    /**
+     * Level-triggered. The key is reported while the channel is ready.
+     */
+    LEVEL,
+
+    /**
+     * Edge-triggered. The key is reported when the channel gets ready, so the handler
+     * must read or write until the channel gets unready.
+     */
+    EDGE,
+
+    /**
+     * Level-triggered, but the key is reported only once. The key is not reported again until
+     * it is re-armed by {@link net.ihiroky.uds4j.EPollSelectionKey#interestOps(int)}.
+     */
+    ONESHOT;
+
+    /**
+     * Returns the epoll events for the interest set in this mode.
+     */
+    int toEPollEvents(int ops) {
+        int events = 0;
+        if ((ops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ)) != 0) {
+            events |= Native.EPOLLIN;
+        }
+        if ((ops & (SelectionKey.OP_CONNECT | SelectionKey.OP_WRITE)) != 0) {
+            events |= Native.EPOLLOUT;
+        }
+        if (events == 0) {
+            return 0;
+        }
+        switch (this) {
+            case DEFAULT:
+                if ((ops & (SelectionKey.OP_ACCEPT | SelectionKey.OP_READ | SelectionKey.OP_WRITE)) != 0) {
+                    events |= Native.EPOLLET;
+                }
+                return events;
+            case EDGE:
+                return events | Native.EPOLLET;
+            case ONESHOT:
+                return events | Native.EPOLLONESHOT;
+            default:
+                return events;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.NativeLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+
+/**
+ * Relays bytes between two connected channels in both directions. The bytes are moved by splice()
+ * through a pipe per direction, so they never enter the Java heap.
+ *
+ * The channels are registered to an {@link net.ihiroky.uds4j.EPollSelector} in edge-triggered mode with
+ * this relay as the attachment, which is called as a {@link net.ihiroky.uds4j.ReadyKeyHandler}.
+ * If a channel gets unwritable, the relay stops reading the opposite channel until the pipe is drained.
+ * When a channel reaches end-of-stream, the opposite channel is shutdown for writing after the pipe is
+ * drained. The relay is closed with both channels when both directions are finished or an I/O error occurs.
+ *
+ * This class is not thread safe; use it in the selecting thread, such as the thread of
+ * {@link net.ihiroky.uds4j.EventLoop}.
+ */
+public final class UnixDomainRelay implements ReadyKeyHandler {
+
+    private final Direction forward_;
+    private final Direction backward_;
+    private final long maxBytesPerEvent_;
+    private EPollSelectionKey firstKey_;
+    private EPollSelectionKey secondKey_;
+    private boolean closed_;
+
+    private static Logger logger_ = LoggerFactory.getLogger(UnixDomainRelay.class);
+
+    /** The default number of the bytes relayed in a direction per event. */
+    public static final long DEFAULT_MAX_BYTES_PER_EVENT = 256 * 1024;
+
+    private static final int SPLICE_FLAGS = Native.SPLICE_F_MOVE | Native.SPLICE_F_NONBLOCK;
+
+    /**
+     * The state of the bytes relayed from a channel to the other.
+     */
+    private static final class Direction {
+        final ClientUnixDomainChannel from_;
+        final ClientUnixDomainChannel to_;
+        final SplicePipe pipe_;
+        long pending_;
+        boolean endOfStream_;
+        boolean finished_;
+
+        Direction(ClientUnixDomainChannel from, ClientUnixDomainChannel to, SplicePipe pipe) {
+            from_ = from;
+            to_ = to;
+            pipe_ = pipe;
+        }
+    }
+
+    /**
+     * Constructs a new instance with {@link #DEFAULT_MAX_BYTES_PER_EVENT}.
+     *
+     * @param first the channel
+     * @param second the other channel
+     * @throws java.io.IOException if the pipes can't be opened
+     */
+    public UnixDomainRelay(ClientUnixDomainChannel first, ClientUnixDomainChannel second) throws IOException {
+        this(first, second, DEFAULT_MAX_BYTES_PER_EVENT);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param first the channel
+     * @param second the other channel
+     * @param maxBytesPerEvent the number of the bytes relayed in a direction per event; if it is exceeded,
+     *                         the rest is relayed in the next selection, after the other ready channels
+     * @throws java.io.IOException if the pipes can't be opened
+     */
+    public UnixDomainRelay(ClientUnixDomainChannel first, ClientUnixDomainChannel second, long maxBytesPerEvent)
+            throws IOException {
+        if (first == null) {
+            throw new NullPointerException("first");
+        }
+        if (second == null) {
+            throw new NullPointerException("second");
+        }
+        if (first == second) {
+            throw new IllegalArgumentException("The channels must be different.");
+        }
+        if (maxBytesPerEvent <= 0L) {
+            throw new IllegalArgumentException("The maxBytesPerEvent must be positive.");
+        }
+        SplicePipe forwardPipe = SplicePipe.open();
+        SplicePipe backwardPipe;
+        try {
+            backwardPipe = SplicePipe.open();
+        } catch (IOException ioe) {
+            forwardPipe.close();
+            throw ioe;
+        }
+        forward_ = new Direction(first, second, forwardPipe);
+        backward_ = new Direction(second, first, backwardPipe);
+        maxBytesPerEvent_ = maxBytesPerEvent;
+    }
+
+    /**
+     * Registers the channels to the selector for {@link java.nio.channels.SelectionKey#OP_READ}
+     * with this relay as the attachment. The channels are configured in non-blocking mode.
+     *
+     * @param selector the selector
+     * @throws java.nio.channels.ClosedChannelException if this relay or the channels are closed
+     * @throws java.io.IOException if some other I/O error occurs
+     */
+    public void register(EPollSelector selector) throws IOException {
+        if (closed_) {
+            throw new ClosedChannelException();
+        }
+        if (firstKey_ != null) {
+            throw new IllegalStateException("The relay is already registered.");
+        }
+        forward_.from_.configureBlocking(false);
+        backward_.from_.configureBlocking(false);
+        firstKey_ = selector.register(forward_.from_, SelectionKey.OP_READ, this, TriggerMode.EDGE);
+        try {
+            secondKey_ = selector.register(backward_.from_, SelectionKey.OP_READ, this, TriggerMode.EDGE);
+        } catch (IOException ioe) {
+            firstKey_.cancel();
+            firstKey_ = null;
+            throw ioe;
+        }
+    }
+
+    @Override
+    public void handle(EPollSelectionKey key) {
+        if (closed_) {
+            return;
+        }
+        Direction outbound;
+        Direction inbound;
+        if (key == firstKey_) {
+            outbound = forward_;
+            inbound = backward_;
+        } else if (key == secondKey_) {
+            outbound = backward_;
+            inbound = forward_;
+        } else {
+            throw new IllegalArgumentException("The key is not registered by this relay: " + key);
+        }
+
+        try {
+            int readyOps = key.readyOps();
+            if ((readyOps & SelectionKey.OP_WRITE) != 0 || readyOps == 0) {
+                relay(inbound);
+            }
+            if ((readyOps & SelectionKey.OP_READ) != 0 || readyOps == 0) {
+                relay(outbound);
+            }
+            if (forward_.finished_ && backward_.finished_) {
+                close();
+                return;
+            }
+            updateInterestOps(firstKey_, forward_, backward_);
+            updateInterestOps(secondKey_, backward_, forward_);
+        } catch (IOException ioe) {
+            logger_.debug("[handle] Failed to relay. The relay is closed.", ioe);
+            close();
+        }
+    }
+
+    private void relay(Direction direction) throws IOException {
+        long bytes = 0L;
+        while (!direction.finished_) {
+            if (direction.pending_ > 0L) {
+                long written = splice(direction.pipe_.readFd(), direction.to_, direction.pending_);
+                if (written == -1L) {
+                    // Wait for the opposite channel to get writable.
+                    return;
+                }
+                direction.pending_ -= written;
+                bytes += written;
+                continue;
+            }
+            if (direction.endOfStream_) {
+                direction.to_.shutdownOutput();
+                direction.finished_ = true;
+                return;
+            }
+            if (bytes >= maxBytesPerEvent_) {
+                EPollSelectionKey key = (direction == forward_) ? firstKey_ : secondKey_;
+                ((EPollSelector) key.selector()).requeue(key, SelectionKey.OP_READ);
+                return;
+            }
+            long read = splice(direction.from_, direction.pipe_.writeFd(), SplicePipe.CAPACITY);
+            if (read == -1L) {
+                return;
+            }
+            if (read == 0L) {
+                direction.endOfStream_ = true;
+            } else {
+                direction.pending_ += read;
+            }
+        }
+    }
+
+    // Returns -1 if the socket is not ready.
+    private static long splice(ClientUnixDomainChannel from, int to, long length) throws IOException {
+        if (!from.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return splice(from.fd_, to, length);
+    }
+
+    // Returns -1 if the socket is not ready.
+    private static long splice(int from, ClientUnixDomainChannel to, long length) throws IOException {
+        if (!to.isOpen()) {
+            throw new ClosedChannelException();
+        }
+        return splice(from, to.fd_, length);
+    }
+
+    private static long splice(int from, int to, long length) throws IOException {
+        long n = Native.splice(from, null, to, null, new NativeLong(length), SPLICE_FLAGS).longValue();
+        if (n == -1L) {
+            int errno = Native.errno();
+            if (errno == Native.EAGAIN) {
+                return -1L;
+            }
+            throw ErrnoException.of(errno);
+        }
+        return n;
+    }
+
+    private static void updateInterestOps(EPollSelectionKey key, Direction outbound, Direction inbound) {
+        if (!key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!outbound.endOfStream_) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (inbound.pending_ > 0L) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(ops);
+    }
+
+    /**
+     * Returns true if this relay is not closed.
+     *
+     * @return true if this relay is not closed
+     */
+    public boolean isOpen() {
+        return !closed_;
+    }
+
+    /**
+     * Closes this relay, the channels and the pipes. The bytes left in the pipes are discarded.
+     */
+    public void close() {
+        if (closed_) {
+            return;
+        }
+        closed_ = true;
+        close(forward_.from_);
+        close(backward_.from_);
+        forward_.pipe_.close();
+        backward_.pipe_.close();
+    }
+
+    private static void close(ClientUnixDomainChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException ioe) {
+            logger_.debug("[close] Failed to close " + channel, ioe);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package net.ihiroky.uds4j;
+
+/**
+ * A callback to be notified when the writability of a {@link net.ihiroky.uds4j.WriteQueue} changes.
+ */
+public interface WritabilityListener {
+
+    /**
+     * Called when the pending bytes of the queue exceed the high watermark, or fall to
+     * the low watermark after exceeding the high watermark. This method is called by the
+     * thread which enqueues or flushes the queue.
+     *
+     * @param queue the queue
+     * @param writable true if the pending bytes fall to the low watermark
+     */
+    void writabilityChanged(WriteQueue queue, boolean writable);
+}
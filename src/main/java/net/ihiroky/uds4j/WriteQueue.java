@@ -0,0 +1,255 @@
+package net.ihiroky.uds4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.Arrays;
+
+/**
+ * An outbound queue of the buffers to be written to a {@link net.ihiroky.uds4j.ReadWriteUnixDomainChannel}.
+ *
+ * {@link #flush(java.nio.channels.SelectionKey)} writes the queued buffers with as few writev calls
+ * as possible, and arms {@link java.nio.channels.SelectionKey#OP_WRITE} only while the queue is not empty.
+ * A small heap buffer is copied into the tail of a pooled direct buffer on enqueue, so many small messages
+ * are combined into a few iovec entries. The other buffers are queued as is and must not be modified
+ * until they are written.
+ *
+ * When the pending bytes exceed the high watermark, the queue gets unwritable and the
+ * {@link net.ihiroky.uds4j.WritabilityListener} is notified. The queue gets writable again when the pending
+ * bytes fall to the low watermark.
+ *
+ * This class is not thread safe; use it in the thread which handles the channel,
+ * such as the thread of {@link net.ihiroky.uds4j.EventLoop}.
+ */
+public final class WriteQueue {
+
+    private final ReadWriteUnixDomainChannel channel_;
+    private final BufferArena arena_;
+    private final int lowWaterMark_;
+    private final int highWaterMark_;
+    private final WritabilityListener listener_;
+    private ByteBuffer[] buffers_;
+    private boolean[] pooled_;
+    private int head_;
+    private int tail_;
+    private long pendingBytes_;
+    private boolean writable_;
+
+    /** The default low watermark. */
+    public static final int DEFAULT_LOW_WATER_MARK = 32 * 1024;
+
+    /** The default high watermark. */
+    public static final int DEFAULT_HIGH_WATER_MARK = 64 * 1024;
+
+    /** The maximum size of a heap buffer which is combined into a pooled direct buffer. */
+    public static final int COMBINE_THRESHOLD = 1024;
+
+    private static final int COMBINE_BUFFER_SIZE = 16 * 1024;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * Constructs a new instance with the default watermarks and no listener.
+     *
+     * @param channel the channel to which the queued buffers are written
+     */
+    public WriteQueue(ReadWriteUnixDomainChannel channel) {
+        this(channel, DEFAULT_LOW_WATER_MARK, DEFAULT_HIGH_WATER_MARK, null);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param channel the channel to which the queued buffers are written
+     * @param lowWaterMark the pending bytes at which the queue gets writable again
+     * @param highWaterMark the pending bytes above which the queue gets unwritable
+     * @param listener the listener to be notified of the writability changes, or null
+     */
+    public WriteQueue(ReadWriteUnixDomainChannel channel,
+                      int lowWaterMark, int highWaterMark, WritabilityListener listener) {
+        if (channel == null) {
+            throw new NullPointerException("channel");
+        }
+        if (lowWaterMark < 0 || lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("The lowWaterMark must be in [0, highWaterMark].");
+        }
+        channel_ = channel;
+        arena_ = BufferArena.getInstance();
+        lowWaterMark_ = lowWaterMark;
+        highWaterMark_ = highWaterMark;
+        listener_ = listener;
+        buffers_ = new ByteBuffer[INITIAL_CAPACITY];
+        pooled_ = new boolean[INITIAL_CAPACITY];
+        writable_ = true;
+    }
+
+    /**
+     * Appends the remaining bytes of the buffer to this queue.
+     *
+     * @param buffer the buffer
+     * @throws net.ihiroky.uds4j.OutOfNativeMemoryException if a heap buffer can't be copied to a pooled buffer;
+     *         the buffer is not queued then
+     */
+    public void enqueue(ByteBuffer buffer) throws OutOfNativeMemoryException {
+        int n = buffer.remaining();
+        if (n == 0) {
+            return;
+        }
+        if (!buffer.isDirect() && n <= COMBINE_THRESHOLD) {
+            combine(buffer);
+        } else {
+            add(buffer, false);
+        }
+        pendingBytes_ += n;
+        if (writable_ && pendingBytes_ > highWaterMark_) {
+            writable_ = false;
+            if (listener_ != null) {
+                listener_.writabilityChanged(this, false);
+            }
+        }
+    }
+
+    private void combine(ByteBuffer buffer) throws OutOfNativeMemoryException {
+        int n = buffer.remaining();
+        int last = tail_ - 1;
+        if (last >= head_ && pooled_[last]) {
+            // The position of the pooled buffer is the head of the unwritten bytes,
+            // and the limit is the end of the combined bytes.
+            ByteBuffer tail = buffers_[last];
+            int position = tail.position();
+            int limit = tail.limit();
+            if (tail.capacity() - limit >= n) {
+                tail.limit(limit + n);
+                tail.position(limit);
+                tail.put(buffer);
+                tail.position(position);
+                return;
+            }
+        }
+        ByteBuffer pooled = arena_.acquire(COMBINE_BUFFER_SIZE);
+        pooled.put(buffer).flip();
+        add(pooled, true);
+    }
+
+    private void add(ByteBuffer buffer, boolean pooled) {
+        if (tail_ == buffers_.length) {
+            int count = tail_ - head_;
+            if (head_ > 0 && count < buffers_.length / 2) {
+                System.arraycopy(buffers_, head_, buffers_, 0, count);
+                System.arraycopy(pooled_, head_, pooled_, 0, count);
+                Arrays.fill(buffers_, count, tail_, null);
+            } else {
+                buffers_ = Arrays.copyOf(buffers_, buffers_.length << 1);
+                pooled_ = Arrays.copyOf(pooled_, pooled_.length << 1);
+            }
+            head_ = 0;
+            tail_ = count;
+        }
+        buffers_[tail_] = buffer;
+        pooled_[tail_] = pooled;
+        tail_++;
+    }
+
+    /**
+     * Writes the queued buffers to the channel until the queue gets empty or the socket buffer gets full.
+     * If the key is not null, {@link java.nio.channels.SelectionKey#OP_WRITE} of the key is armed
+     * while some bytes are pending and disarmed when the queue gets empty.
+     *
+     * @param key the key of the channel, or null
+     * @return true if the queue is empty
+     * @throws java.io.IOException if an I/O error occurs
+     */
+    public boolean flush(SelectionKey key) throws IOException {
+        if (head_ < tail_) {
+            long written = channel_.write(buffers_, head_, tail_ - head_);
+            pendingBytes_ -= written;
+            removeWritten();
+        }
+
+        boolean empty = (head_ == tail_);
+        if (key != null) {
+            int ops = key.interestOps();
+            if (empty) {
+                if ((ops & SelectionKey.OP_WRITE) != 0) {
+                    key.interestOps(ops & ~SelectionKey.OP_WRITE);
+                }
+            } else if ((ops & SelectionKey.OP_WRITE) == 0) {
+                key.interestOps(ops | SelectionKey.OP_WRITE);
+            }
+        }
+        if (!writable_ && pendingBytes_ <= lowWaterMark_) {
+            setWritable();
+        }
+        return empty;
+    }
+
+    private void setWritable() {
+        writable_ = true;
+        if (listener_ != null) {
+            listener_.writabilityChanged(this, true);
+        }
+    }
+
+    private void removeWritten() {
+        while (head_ < tail_ && !buffers_[head_].hasRemaining()) {
+            if (pooled_[head_]) {
+                arena_.release(buffers_[head_]);
+            }
+            buffers_[head_] = null;
+            head_++;
+        }
+        if (head_ == tail_) {
+            head_ = 0;
+            tail_ = 0;
+        }
+    }
+
+    /**
+     * Discards the queued buffers. The pooled buffers are returned to the pool.
+     */
+    public void clear() {
+        for (int i = head_; i < tail_; i++) {
+            if (pooled_[i]) {
+                arena_.release(buffers_[i]);
+            }
+            buffers_[i] = null;
+        }
+        head_ = 0;
+        tail_ = 0;
+        pendingBytes_ = 0L;
+        if (!writable_) {
+            setWritable();
+        }
+    }
+
+    /**
+     * Returns the number of the bytes not written yet.
+     *
+     * @return the number of the bytes not written yet
+     */
+    public long pendingBytes() {
+        return pendingBytes_;
+    }
+
+    /**
+     * Returns true if the pending bytes have not exceeded the high watermark, or have fallen
+     * to the low watermark after exceeding it.
+     *
+     * @return true if this queue is writable
+     */
+    public boolean isWritable() {
+        return writable_;
+    }
+
+    /**
+     * Returns true if no bytes are pending.
+     *
+     * @return true if no bytes are pending
+     */
+    public boolean isEmpty() {
+        return head_ == tail_;
+    }
+
+    int size() {
+        return tail_ - head_;
+    }
+}
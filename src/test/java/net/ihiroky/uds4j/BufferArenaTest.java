@@ -0,0 +1,160 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class BufferArenaTest {
+
+    private BufferArena sut_;
+    private SlabBufferPool depot_;
+    private NativeMemoryAllocator allocator_;
+
+    @Before
+    public void setUp() throws Exception {
+        allocator_ = new NativeMemoryAllocator(2 * 1024 * 1024);
+        depot_ = new SlabBufferPool(allocator_, 64, 1024 * 1024);
+        sut_ = new BufferArena(depot_);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        depot_.close();
+    }
+
+    @Test
+    public void testReleaseThenAcquireFromMagazine() throws Exception {
+        ByteBuffer b0 = sut_.acquire(100);
+        int depotCount = sut_.depotCount();
+        sut_.release(b0);
+
+        ByteBuffer b1 = sut_.acquire(120);
+
+        assertThat(b1, is(sameInstance(b0)));
+        assertThat(b1.limit(), is(120));
+        assertThat(sut_.depotCount(), is(depotCount));
+    }
+
+    @Test
+    public void testFullMagazineReturnsHalfToDepot() throws Exception {
+        ByteBuffer[] buffers = new ByteBuffer[BufferArena.MAGAZINE_SIZE + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = sut_.acquire(64);
+        }
+        int depotCount = sut_.depotCount();
+
+        for (ByteBuffer buffer : buffers) {
+            sut_.release(buffer);
+        }
+
+        assertThat(sut_.depotCount(), is(depotCount + BufferArena.MAGAZINE_SIZE / 2));
+    }
+
+    @Test
+    public void testMagazineDepthIsBoundedByBytes() throws Exception {
+        assertThat(BufferArena.magazineDepth(SlabBufferPool.sizeClass(64)), is(BufferArena.MAGAZINE_SIZE));
+        assertThat(BufferArena.magazineDepth(SlabBufferPool.sizeClass(128 * 1024)), is(2));
+        assertThat(BufferArena.magazineDepth(SlabBufferPool.sizeClass(256 * 1024)), is(1));
+        assertThat(BufferArena.magazineDepth(SlabBufferPool.sizeClass(SlabBufferPool.MAX_BUFFER_SIZE)), is(1));
+    }
+
+    @Test
+    public void testFullMagazineOfLargeClassReturnsToDepot() throws Exception {
+        ByteBuffer b0 = sut_.acquire(256 * 1024);
+        ByteBuffer b1 = sut_.acquire(256 * 1024);
+        int depotCount = sut_.depotCount();
+
+        sut_.release(b0);
+        sut_.release(b1);
+
+        assertThat(sut_.depotCount(), is(depotCount + 1));
+        assertThat(sut_.acquire(256 * 1024), is(sameInstance(b1)));
+    }
+
+    @Test
+    public void testReleaseBufferNotOwnedByDepot() throws Exception {
+        long allocated = allocator_.allocatedBytes();
+        ByteBuffer buffer = allocator_.allocate(64);
+
+        sut_.release(buffer);
+
+        assertThat(allocator_.allocatedBytes(), is(allocated));
+        assertThat(sut_.acquire(64), is(not(sameInstance(buffer))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() throws Exception {
+        ByteBuffer buffer = sut_.acquire(64);
+        sut_.release(buffer);
+
+        sut_.release(buffer);
+    }
+
+    @Test
+    public void testTrimFlushesLiveMagazine() throws Exception {
+        sut_.release(sut_.acquire(64));
+
+        assertThat(sut_.trim(), is(0L));
+        long trimmed = sut_.trim(true);
+
+        assertThat(trimmed, is(64L * 64));
+        assertThat(sut_.depotCount(), is(0));
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testTrimFlushesMagazineOfTerminatedThread() throws Exception {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    sut_.release(sut_.acquire(64));
+                } catch (OutOfNativeMemoryException oonme) {
+                    throw new AssertionError(oonme);
+                }
+            }
+        };
+        thread.start();
+        thread.join();
+
+        long trimmed = sut_.trim();
+
+        assertThat(trimmed, is(64L * 64));
+        assertThat(sut_.depotCount(), is(0));
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testReleaseLocalMagazine() throws Exception {
+        ByteBuffer b0 = sut_.acquire(64);
+        ByteBuffer b1 = sut_.acquire(128);
+        sut_.release(b0);
+        sut_.release(b1);
+
+        long trimmed = sut_.releaseLocalMagazine();
+
+        assertThat(trimmed, is(64L * 64 + 128L * 64));
+        assertThat(sut_.depotCount(), is(0));
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testAcquireAfterReleaseLocalMagazine() throws Exception {
+        sut_.release(sut_.acquire(64));
+        sut_.releaseLocalMagazine();
+
+        ByteBuffer buffer = sut_.acquire(64);
+        sut_.release(buffer);
+
+        assertThat(buffer.capacity(), is(64));
+        assertThat(sut_.releaseLocalMagazine(), is(64L * 64));
+    }
+}
@@ -0,0 +1,460 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ClientUnixDomainChannelTest {
+
+    private ClientUnixDomainChannel sut_;
+    private ClientUnixDomainChannel peer_;
+    private File srcFile_;
+    private File dstFile_;
+
+    @Before
+    public void setUp() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        sut_ = pair.get(0);
+        peer_ = pair.get(1);
+        sut_.configureBlocking(false);
+        peer_.configureBlocking(false);
+        srcFile_ = File.createTempFile("uds4j-src", ".dat");
+        dstFile_ = File.createTempFile("uds4j-dst", ".dat");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.close();
+        peer_.close();
+        srcFile_.delete();
+        dstFile_.delete();
+    }
+
+    @Test
+    public void testReadReturnsZeroIfNoDataIsAvailable() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+
+        assertThat(sut_.read(buffer), is(0));
+        assertThat(sut_.read(new ByteBuffer[]{buffer}), is(0L));
+        assertThat(buffer.position(), is(0));
+    }
+
+    @Test
+    public void testWriteReturnsZeroIfSocketBufferIsFull() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        while (sut_.write(buffer) > 0) {
+            buffer.clear();
+        }
+        buffer.clear();
+
+        assertThat(sut_.write(buffer), is(0));
+        assertThat(sut_.write(new ByteBuffer[]{buffer}), is(0L));
+        assertThat(buffer.position(), is(0));
+    }
+
+    @Test(expected = BrokenPipeException.class)
+    public void testWriteAfterPeerIsClosed() throws Exception {
+        peer_.close();
+
+        sut_.write(ByteBuffer.wrap(new byte[]{1}));
+    }
+
+    @Test(expected = ConnectionResetException.class)
+    public void testReadAfterPeerIsClosedWithUnreadData() throws Exception {
+        sut_.write(ByteBuffer.wrap(new byte[]{1}));
+        peer_.close();
+
+        sut_.read(ByteBuffer.allocate(1));
+    }
+
+    private static ByteBuffer[] buffers(int count, int size) {
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ByteBuffer.allocate(size);
+        }
+        return buffers;
+    }
+
+    @Test
+    public void testScatteringAndGatheringMoreBuffersThanIovMax() throws Exception {
+        int count = Native.IOV_MAX * 2 + 1;
+        ByteBuffer[] srcs = buffers(count, 1);
+        for (int i = 0; i < count; i++) {
+            srcs[i].put(0, (byte) i);
+        }
+        ByteBuffer[] dsts = buffers(count, 1);
+
+        assertThat(sut_.write(srcs), is((long) count));
+        assertThat(peer_.read(dsts), is((long) count));
+        for (int i = 0; i < count; i++) {
+            assertThat(srcs[i].hasRemaining(), is(false));
+            assertThat(dsts[i].hasRemaining(), is(false));
+            assertThat(dsts[i].get(0), is((byte) i));
+        }
+    }
+
+    @Test
+    public void testScatteringReadReturnsTotalIfNoDataIsAvailableForNextChunk() throws Exception {
+        sut_.write(ByteBuffer.wrap(new byte[Native.IOV_MAX]));
+        ByteBuffer[] dsts = buffers(Native.IOV_MAX * 2, 1);
+
+        assertThat(peer_.read(dsts), is((long) Native.IOV_MAX));
+        assertThat(dsts[Native.IOV_MAX - 1].hasRemaining(), is(false));
+        assertThat(dsts[Native.IOV_MAX].hasRemaining(), is(true));
+    }
+
+    @Test
+    public void testGatheringWriteReturnsTotalIfSocketBufferIsFullForNextChunk() throws Exception {
+        ByteBuffer one = ByteBuffer.allocate(1);
+        while (sut_.write(one) > 0) {
+            one.clear();
+        }
+        // Free the space for a single chunk, which fills the socket buffer again.
+        peer_.read(ByteBuffer.allocate(1));
+        ByteBuffer[] srcs = buffers(Native.IOV_MAX * 2, 1);
+
+        assertThat(sut_.write(srcs), is((long) Native.IOV_MAX));
+        assertThat(srcs[Native.IOV_MAX - 1].hasRemaining(), is(false));
+        assertThat(srcs[Native.IOV_MAX].hasRemaining(), is(true));
+    }
+
+    /**
+     * Collects the sizes of the buffers received by drain().
+     */
+    private static class ReceivedSizes implements ReceiveHandler {
+        final List<Integer> sizes_ = new ArrayList<Integer>();
+
+        @Override
+        public void received(ReadWriteUnixDomainChannel channel, ByteBuffer buffer) {
+            sizes_.add(buffer.remaining());
+        }
+    }
+
+    private static ReceiveBufferAllocator fixedAllocator(int size) {
+        return new ReceiveBufferAllocator(size, size, size, false);
+    }
+
+    @Test
+    public void testDrainUntilShortRead() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[100]));
+        ReceivedSizes handler = new ReceivedSizes();
+
+        DrainResult result = sut_.drain(null, fixedAllocator(64), handler, 1024L, 16);
+
+        assertThat(result, is(DrainResult.DRAINED));
+        assertThat(handler.sizes_, is(Arrays.asList(64, 36)));
+    }
+
+    @Test
+    public void testDrainUntilNoDataIsAvailable() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[128]));
+        ReceivedSizes handler = new ReceivedSizes();
+
+        DrainResult result = sut_.drain(null, fixedAllocator(64), handler, 1024L, 16);
+
+        assertThat(result, is(DrainResult.DRAINED));
+        assertThat(handler.sizes_, is(Arrays.asList(64, 64)));
+    }
+
+    @Test
+    public void testDrainStopsAtByteBudget() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[256]));
+        ReceivedSizes handler = new ReceivedSizes();
+
+        DrainResult result = sut_.drain(null, fixedAllocator(64), handler, 100L, 16);
+
+        assertThat(result, is(DrainResult.BUDGET_EXHAUSTED));
+        assertThat(handler.sizes_, is(Arrays.asList(64, 64)));
+    }
+
+    @Test
+    public void testDrainStopsAtReadBudget() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[256]));
+        ReceivedSizes handler = new ReceivedSizes();
+
+        DrainResult result = sut_.drain(null, fixedAllocator(64), handler, 1024L, 3);
+
+        assertThat(result, is(DrainResult.BUDGET_EXHAUSTED));
+        assertThat(handler.sizes_, is(Arrays.asList(64, 64, 64)));
+    }
+
+    @Test
+    public void testDrainEndOfStream() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[10]));
+        peer_.close();
+        ReceivedSizes handler = new ReceivedSizes();
+        ReceiveBufferAllocator allocator = fixedAllocator(64);
+
+        // The short read returns before end-of-stream is read.
+        assertThat(sut_.drain(null, allocator, handler, 1024L, 16), is(DrainResult.DRAINED));
+        assertThat(sut_.drain(null, allocator, handler, 1024L, 16), is(DrainResult.END_OF_STREAM));
+        assertThat(handler.sizes_, is(Arrays.asList(10)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDrainWithoutBudget() throws Exception {
+        sut_.drain(null, fixedAllocator(64), new ReceivedSizes(), 0L, 16);
+    }
+
+    @Test
+    public void testDrainRequeuesKeyIfBudgetIsExhausted() throws Exception {
+        EPollSelector selector = EPollSelector.open();
+        try {
+            EPollSelectionKey key = selector.register(sut_, SelectionKey.OP_READ, null, TriggerMode.EDGE);
+            peer_.write(ByteBuffer.wrap(new byte[256]));
+            assertThat(selector.selectNow(), is(1));
+            selector.selectedKeys().clear();
+            ReceivedSizes handler = new ReceivedSizes();
+            ReceiveBufferAllocator allocator = fixedAllocator(64);
+
+            assertThat(sut_.drain(key, allocator, handler, 1024L, 2), is(DrainResult.BUDGET_EXHAUSTED));
+
+            // Reported without a new edge, and without blocking.
+            assertThat(selector.select(10000L), is(1));
+            assertThat(selector.selectedKeys().contains(key), is(true));
+            selector.selectedKeys().clear();
+            assertThat(sut_.drain(key, allocator, handler, 1024L, 16), is(DrainResult.DRAINED));
+            assertThat(selector.selectNow(), is(0));
+            assertThat(handler.sizes_, is(Arrays.asList(64, 64, 64, 64)));
+        } finally {
+            selector.close();
+        }
+    }
+
+    /**
+     * A FileChannel whose file descriptor can't be looked up, which makes the transfer fall back
+     * to copying through a buffer.
+     */
+    private static class ForeignFileChannel extends FileChannel {
+        final FileChannel channel_;
+
+        ForeignFileChannel(FileChannel channel) {
+            channel_ = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel_.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return channel_.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return channel_.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return channel_.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return channel_.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            channel_.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return channel_.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            channel_.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            channel_.force(metaData);
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return channel_.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return channel_.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return channel_.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return channel_.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return channel_.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return channel_.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return channel_.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            channel_.close();
+        }
+    }
+
+    @Test
+    public void testTransferFromAndTransferTo() throws Exception {
+        testTransferFromAndTransferTo(false);
+    }
+
+    @Test
+    public void testTransferFromAndTransferToThroughBuffer() throws Exception {
+        testTransferFromAndTransferTo(true);
+    }
+
+    private void testTransferFromAndTransferTo(boolean foreign) throws Exception {
+        byte[] data = new byte[200000];
+        new Random(0).nextBytes(data);
+        RandomAccessFile src = new RandomAccessFile(srcFile_, "rw");
+        RandomAccessFile dst = new RandomAccessFile(dstFile_, "rw");
+        try {
+            FileChannel srcChannel = foreign ? new ForeignFileChannel(src.getChannel()) : src.getChannel();
+            FileChannel dstChannel = foreign ? new ForeignFileChannel(dst.getChannel()) : dst.getChannel();
+            assertThat(FileDescriptors.of(srcChannel) == -1, is(foreign));
+            srcChannel.write(ByteBuffer.wrap(data));
+            srcChannel.position(0);
+
+            long sent = 0;
+            long received = 0;
+            while (received < data.length) {
+                sent += sut_.transferFrom(srcChannel, sent, data.length - sent);
+                long n = peer_.transferTo(dstChannel, received, data.length);
+                assertThat(n >= 0, is(true));
+                received += n;
+            }
+            assertThat(sent, is((long) data.length));
+            assertThat(srcChannel.position(), is(0L));
+            assertThat(sut_.transferFrom(srcChannel, data.length, 1), is(0L));
+
+            byte[] result = new byte[data.length];
+            dst.readFully(result);
+            assertThat(Arrays.equals(result, data), is(true));
+
+            sut_.close();
+            assertThat(peer_.transferTo(dstChannel, received, 1), is(-1L));
+        } finally {
+            src.close();
+            dst.close();
+        }
+    }
+
+    @Test
+    public void testTransferToInBlockingModeReturnsAfterChunk() throws Exception {
+        testTransferToInBlockingModeReturnsAfterChunk(false);
+    }
+
+    @Test
+    public void testTransferToThroughBufferInBlockingModeReturnsAfterChunk() throws Exception {
+        testTransferToInBlockingModeReturnsAfterChunk(true);
+    }
+
+    private void testTransferToInBlockingModeReturnsAfterChunk(boolean foreign) throws Exception {
+        final int chunk = 64 * 1024;
+        peer_.configureBlocking(true);
+        sut_.write(ByteBuffer.wrap(new byte[chunk]));
+        RandomAccessFile dst = new RandomAccessFile(dstFile_, "rw");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final FileChannel dstChannel = foreign ? new ForeignFileChannel(dst.getChannel()) : dst.getChannel();
+            // The bytes available are the multiple of the chunk, so reading the next chunk would block.
+            Future<Long> transfer = executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long received = 0L;
+                    while (received < chunk) {
+                        received += peer_.transferTo(dstChannel, received, chunk * 4);
+                    }
+                    return received;
+                }
+            });
+
+            assertThat(transfer.get(5L, TimeUnit.SECONDS), is((long) chunk));
+            assertThat(dst.length(), is((long) chunk));
+        } finally {
+            executor.shutdownNow();
+            dst.close();
+        }
+    }
+
+    private static int countOpenFileDescriptors() {
+        return new File("/proc/self/fd").list().length;
+    }
+
+    @Test
+    public void testSplicePipeIsClosedWithChannel() throws Exception {
+        RandomAccessFile dst = new RandomAccessFile(dstFile_, "rw");
+        try {
+            List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+            int fds = countOpenFileDescriptors();
+            ClientUnixDomainChannel reader = pair.get(0);
+            reader.configureBlocking(false);
+            for (int i = 0; i < 3; i++) {
+                pair.get(1).write(ByteBuffer.wrap(new byte[100]));
+                assertThat(reader.transferTo(dst.getChannel(), i * 100, 100), is(100L));
+            }
+            // A pipe is cached by the channel, and reused by the transfers.
+            assertThat(countOpenFileDescriptors(), is(fds + 2));
+
+            pair.get(0).close();
+            pair.get(1).close();
+
+            assertThat(countOpenFileDescriptors(), is(fds - 2));
+        } finally {
+            dst.close();
+        }
+    }
+}
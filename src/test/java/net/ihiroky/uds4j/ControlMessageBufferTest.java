@@ -0,0 +1,91 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ControlMessageBufferTest {
+
+    private ControlMessageBuffer sut_;
+    private ClientUnixDomainChannel sender_;
+    private ClientUnixDomainChannel receiver_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new ControlMessageBuffer(2);
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        sender_ = pair.get(0);
+        receiver_ = pair.get(1);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sender_.close();
+        receiver_.close();
+    }
+
+    @Test(expected = BufferOverflowException.class)
+    public void testAddBeyondCapacity() throws Exception {
+        sut_.add(0).add(1).add(2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPassChannelWithoutBytes() throws Exception {
+        sut_.add(sender_);
+
+        sender_.write(ByteBuffer.allocate(0), sut_);
+    }
+
+    @Test
+    public void testPassChannel() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel passed = pair.get(0);
+        ClientUnixDomainChannel peer = pair.get(1);
+        ControlMessageBuffer received = new ControlMessageBuffer();
+        ClientUnixDomainChannel wrapped = null;
+        try {
+            sut_.add(passed);
+            assertThat(sender_.write(ByteBuffer.wrap(new byte[]{1}), sut_), is(1));
+            passed.closeWithoutShutdown();
+
+            ByteBuffer dst = ByteBuffer.allocate(4);
+            assertThat(receiver_.read(dst, received), is(1));
+            assertThat(received.count(), is(1));
+            assertThat(received.isTruncated(), is(false));
+
+            wrapped = ClientUnixDomainChannel.wrap(received.get(0));
+            wrapped.write(ByteBuffer.wrap(new byte[]{2, 3}));
+            assertThat(peer.read(dst), is(2));
+        } finally {
+            if (wrapped != null) {
+                wrapped.close();
+            }
+            passed.close();
+            peer.close();
+        }
+    }
+
+    @Test
+    public void testReceiveTruncated() throws Exception {
+        ControlMessageBuffer small = new ControlMessageBuffer(1);
+        sut_.add(sender_).add(receiver_);
+        sender_.write(ByteBuffer.wrap(new byte[]{1}), sut_);
+
+        assertThat(receiver_.read(ByteBuffer.allocateDirect(4), small), is(1));
+        assertThat(small.count(), is(1));
+        assertThat(small.isTruncated(), is(true));
+
+        small.closeAll();
+        assertThat(small.count(), is(0));
+    }
+}
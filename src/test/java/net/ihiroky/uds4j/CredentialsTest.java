@@ -0,0 +1,45 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class CredentialsTest {
+
+    @Test
+    public void testPeerCredentialsAndPassedCredentials() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel client = pair.get(0);
+        ClientUnixDomainChannel peer = pair.get(1);
+        DatagramUnixDomainChannel[] datagrams = DatagramUnixDomainChannel.pair();
+        try {
+            Credentials credentials = client.getPeerCredentials();
+            assertThat(credentials.pid() > 0, is(true));
+            assertThat(client.getPeerCredentials(), is(sameInstance(credentials)));
+            assertThat(peer.getPeerCredentials(), is(credentials));
+
+            ControlMessageBuffer control = new ControlMessageBuffer();
+            datagrams[1].setOption(SocketOptions.SO_PASSCRED, true);
+            datagrams[0].send(ByteBuffer.wrap(new byte[]{1}), null, control);
+            ByteBuffer dst = ByteBuffer.allocate(4);
+            datagrams[1].receive(dst, control);
+            assertThat(dst.position(), is(1));
+            assertThat(control.credentials(), is(credentials));
+
+            control.clear();
+            assertThat(control.credentials(), is(nullValue()));
+        } finally {
+            client.close();
+            peer.close();
+            datagrams[0].close();
+            datagrams[1].close();
+        }
+    }
+}
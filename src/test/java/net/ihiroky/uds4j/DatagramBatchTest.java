@@ -0,0 +1,100 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.NotYetConnectedException;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class DatagramBatchTest {
+
+    private DatagramBatch sut_;
+    private DatagramUnixDomainChannel sender_;
+    private DatagramUnixDomainChannel receiver_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new DatagramBatch(4, 8);
+        DatagramUnixDomainChannel[] pair = DatagramUnixDomainChannel.pair();
+        sender_ = pair[0];
+        receiver_ = pair[1];
+        sender_.configureBlocking(false);
+        receiver_.configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.close();
+        sender_.close();
+        receiver_.close();
+    }
+
+    @Test
+    public void testSendAndReceiveBatch() throws Exception {
+        DatagramBatch sending = new DatagramBatch(6, 16);
+        try {
+            for (int i = 0; i < 6; i++) {
+                for (int j = 0; j <= i * 2; j++) {
+                    sending.buffer(i).put((byte) i);
+                }
+                sending.buffer(i).flip();
+            }
+            assertThat(sender_.sendBatch(sending, 0, 6), is(6));
+            assertThat(sending.buffer(5).hasRemaining(), is(false));
+
+            assertThat(receiver_.receiveBatch(sut_), is(4));
+            assertThat(sut_.size(), is(4));
+            assertThat(sut_.buffer(0).remaining(), is(1));
+            assertThat(sut_.buffer(3).remaining(), is(7));
+            assertThat(sut_.buffer(3).get(0), is((byte) 3));
+            assertThat(sut_.isTruncated(3), is(false));
+            assertThat(sut_.address(0), is(nullValue()));
+
+            assertThat(receiver_.receiveBatch(sut_), is(2));
+            assertThat(sut_.buffer(0).remaining(), is(8));
+            assertThat(sut_.isTruncated(0), is(true));
+            assertThat(sut_.isTruncated(1), is(true));
+
+            assertThat(receiver_.receiveBatch(sut_), is(0));
+        } finally {
+            sending.close();
+        }
+    }
+
+    @Test
+    public void testSendBatchWithoutDatagrams() throws Exception {
+        DatagramUnixDomainChannel channel = DatagramUnixDomainChannel.open();
+        try {
+            assertThat(channel.sendBatch(sut_, 4, 0), is(0));
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test(expected = NotYetConnectedException.class)
+    public void testSendBatchWithoutAddressToUnconnectedChannel() throws Exception {
+        DatagramUnixDomainChannel channel = DatagramUnixDomainChannel.open();
+        try {
+            sut_.buffer(0).put((byte) 1).flip();
+            channel.sendBatch(sut_, 0, 1);
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructTooLargeMessageSize() throws Exception {
+        new DatagramBatch(1, SlabBufferPool.MAX_BUFFER_SIZE + 1);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testAddressBeyondSize() throws Exception {
+        sut_.address(0);
+    }
+}
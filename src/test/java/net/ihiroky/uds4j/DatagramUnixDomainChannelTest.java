@@ -0,0 +1,68 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class DatagramUnixDomainChannelTest {
+
+    private DatagramUnixDomainChannel sut_;
+    private DatagramUnixDomainChannel peer_;
+    private File sutPath_;
+    private File peerPath_;
+
+    @Before
+    public void setUp() throws Exception {
+        sutPath_ = File.createTempFile("uds4j-sut", ".sock");
+        sutPath_.delete();
+        peerPath_ = File.createTempFile("uds4j-peer", ".sock");
+        peerPath_.delete();
+        // read() requires the connected channel.
+        sut_ = DatagramUnixDomainChannel.open().bind(new UnixDomainSocketAddress(sutPath_.getPath()));
+        peer_ = DatagramUnixDomainChannel.open().bind(new UnixDomainSocketAddress(peerPath_.getPath()));
+        sut_.connect(new UnixDomainSocketAddress(peerPath_.getPath()));
+        peer_.connect(new UnixDomainSocketAddress(sutPath_.getPath()));
+        sut_.configureBlocking(false);
+        peer_.configureBlocking(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.close();
+        peer_.close();
+        sutPath_.delete();
+        peerPath_.delete();
+    }
+
+    @Test
+    public void testDrainReadsEachDatagramUntilNoDataIsAvailable() throws Exception {
+        peer_.write(ByteBuffer.wrap(new byte[10]));
+        peer_.write(ByteBuffer.wrap(new byte[20]));
+        peer_.write(ByteBuffer.wrap(new byte[30]));
+        final List<Integer> sizes = new ArrayList<Integer>();
+        ReceiveHandler handler = new ReceiveHandler() {
+            @Override
+            public void received(ReadWriteUnixDomainChannel channel, ByteBuffer buffer) {
+                sizes.add(buffer.remaining());
+            }
+        };
+
+        // A short read does not mean that the socket is empty, unlike a stream socket.
+        DrainResult result = sut_.drain(null, new ReceiveBufferAllocator(64, 64, 64, false), handler, 1024L, 16);
+
+        assertThat(result, is(DrainResult.DRAINED));
+        assertThat(sizes, is(Arrays.asList(10, 20, 30)));
+    }
+}
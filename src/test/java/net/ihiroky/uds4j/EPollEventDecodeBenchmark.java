@@ -0,0 +1,81 @@
+package net.ihiroky.uds4j;
+
+import com.sun.jna.Memory;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Measures the cost to decode a result of epoll_wait() per event.
+ *
+ * Compares the decoding through {@link net.ihiroky.uds4j.Native.EPollEvent}
+ * with the decoding through fixed offsets on the raw event buffer, which
+ * {@link net.ihiroky.uds4j.EPollSelector} uses.
+ */
+public final class EPollEventDecodeBenchmark {
+
+    private static final int EVENTS = 1024;
+    private static final int WARMUP_ROUNDS = 2000;
+    private static final int ROUNDS = 10000;
+
+    private EPollEventDecodeBenchmark() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Runs the benchmark.
+     *
+     * @param args the command line arguments; not used
+     */
+    public static void main(String[] args) {
+        Memory memory = new Memory((long) EVENTS * Native.EPOLL_EVENT_SIZE);
+        ByteBuffer buffer = memory.getByteBuffer(0, memory.size()).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < EVENTS; i++) {
+            int offset = i * Native.EPOLL_EVENT_SIZE;
+            buffer.putInt(offset + Native.EPOLL_EVENT_EVENTS_OFFSET, Native.EPOLLIN);
+            buffer.putLong(offset + Native.EPOLL_EVENT_DATA_OFFSET, i);
+        }
+
+        long sum = 0;
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            sum += decodeByStructure(memory);
+            sum += decodeByOffset(buffer);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sum += decodeByStructure(memory);
+        }
+        long structureNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < ROUNDS; i++) {
+            sum += decodeByOffset(buffer);
+        }
+        long offsetNanos = System.nanoTime() - start;
+
+        double events = (double) EVENTS * ROUNDS;
+        System.out.printf("Structure: %.2f ns/event%n", structureNanos / events);
+        System.out.printf("Offset:    %.2f ns/event%n", offsetNanos / events);
+        System.out.printf("(checksum: %d)%n", sum);
+    }
+
+    private static long decodeByStructure(Memory memory) {
+        long sum = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            Native.EPollEvent event = new Native.EPollEvent(memory.share((long) i * Native.EPOLL_EVENT_SIZE));
+            sum += event.events_ + event.data_.u64_;
+        }
+        return sum;
+    }
+
+    private static long decodeByOffset(ByteBuffer buffer) {
+        long sum = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            int offset = i * Native.EPOLL_EVENT_SIZE;
+            sum += buffer.getInt(offset + Native.EPOLL_EVENT_EVENTS_OFFSET)
+                    + buffer.getLong(offset + Native.EPOLL_EVENT_DATA_OFFSET);
+        }
+        return sum;
+    }
+}
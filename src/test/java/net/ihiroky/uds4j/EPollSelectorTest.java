@@ -0,0 +1,557 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EPollSelectorTest {
+
+    private EPollSelector sut_;
+    private List<ClientUnixDomainChannel> channels_;
+    private ExecutorService executor_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = EPollSelector.open();
+        channels_ = new ArrayList<ClientUnixDomainChannel>();
+        executor_ = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor_.shutdownNow();
+        sut_.close();
+        for (ClientUnixDomainChannel channel : channels_) {
+            channel.close();
+        }
+    }
+
+    private ClientUnixDomainChannel[] pair() throws Exception {
+        ClientUnixDomainChannel[] pair = ClientUnixDomainChannel.pair().toArray(new ClientUnixDomainChannel[2]);
+        channels_.add(pair[0]);
+        channels_.add(pair[1]);
+        pair[0].configureBlocking(false);
+        pair[1].configureBlocking(false);
+        return pair;
+    }
+
+    /**
+     * Registers the readers of the new pairs in level-triggered mode, and makes them readable.
+     */
+    private List<EPollSelectionKey> registerReadable(int n) throws Exception {
+        List<EPollSelectionKey> keys = new ArrayList<EPollSelectionKey>();
+        for (int i = 0; i < n; i++) {
+            ClientUnixDomainChannel[] pair = pair();
+            keys.add(sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.LEVEL));
+            pair[1].write(ByteBuffer.wrap(new byte[]{1}));
+        }
+        return keys;
+    }
+
+    /**
+     * Calls select() with a long timeout in another thread, and waits until the thread blocks in it.
+     */
+    private Future<Integer> selectInBackground() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        Future<Integer> future = executor_.submit(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                return sut_.select(10000L);
+            }
+        });
+        started.await();
+        Thread.sleep(100L);
+        return future;
+    }
+
+    @Test
+    public void testRegisterWhileSelecting() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        pair[1].write(ByteBuffer.wrap(new byte[]{1}));
+        Future<Integer> selecting = selectInBackground();
+
+        SelectionKey key = pair[0].register(sut_, SelectionKey.OP_READ);
+
+        // The registration wakes up the selecting thread, which adds the key to epoll on the next selection.
+        assertThat(selecting.get(2L, TimeUnit.SECONDS), is(0));
+        assertThat(sut_.selectNow(), is(1));
+        assertThat(sut_.selectedKeys().contains(key), is(true));
+    }
+
+    @Test
+    public void testInterestOpsChangedWhileSelecting() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        SelectionKey key = pair[0].register(sut_, SelectionKey.OP_READ);
+        assertThat(sut_.selectNow(), is(0));
+        long ctlCount = sut_.getEPollCtlCount();
+        Future<Integer> selecting = selectInBackground();
+
+        key.interestOps(SelectionKey.OP_WRITE);
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+
+        assertThat(selecting.get(2L, TimeUnit.SECONDS), is(0));
+        assertThat(sut_.selectNow(), is(1));
+        assertThat(key.readyOps(), is(SelectionKey.OP_WRITE));
+        // The changes queued before the selection are applied by a single epoll_ctl().
+        assertThat(sut_.getEPollCtlCount(), is(ctlCount + 1));
+    }
+
+    @Test
+    public void testUnchangedInterestOpsSkipEPollCtl() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        SelectionKey key = pair[0].register(sut_, SelectionKey.OP_READ);
+        sut_.selectNow();
+        long ctlCount = sut_.getEPollCtlCount();
+
+        key.interestOps(SelectionKey.OP_READ);
+        sut_.selectNow();
+        assertThat(sut_.getEPollCtlCount(), is(ctlCount));
+        assertThat(sut_.getSuppressedEPollCtlCount(), is(0L));
+
+        key.interestOps(SelectionKey.OP_WRITE);
+        key.interestOps(SelectionKey.OP_READ);
+        sut_.selectNow();
+        assertThat(sut_.getEPollCtlCount(), is(ctlCount));
+        assertThat(sut_.getSuppressedEPollCtlCount(), is(1L));
+
+        key.interestOps(SelectionKey.OP_WRITE);
+        sut_.selectNow();
+        assertThat(sut_.getEPollCtlCount(), is(ctlCount + 1));
+    }
+
+    @Test
+    public void testRegisterChannelReusingFdOfClosedChannel() throws Exception {
+        ClientUnixDomainChannel[] closed = pair();
+        closed[0].register(sut_, SelectionKey.OP_READ);
+        sut_.selectNow();
+        int fd = closed[0].fd_;
+        closed[0].close();
+
+        ClientUnixDomainChannel[] reusing = pair();
+        assertThat(reusing[0].fd_, is(fd));
+        SelectionKey key = reusing[0].register(sut_, SelectionKey.OP_READ);
+        reusing[1].write(ByteBuffer.wrap(new byte[]{1}));
+
+        assertThat(sut_.selectNow(), is(1));
+        assertThat(sut_.selectedKeys().contains(key), is(true));
+    }
+
+    @Test
+    public void testSelectedKeysHoldEachKeyOnce() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(3);
+
+        sut_.selectNow();
+        sut_.selectNow();
+
+        Set<SelectionKey> selected = sut_.selectedKeys();
+        assertThat(selected.size(), is(3));
+        assertThat(selected.containsAll(keys), is(true));
+        assertThat(selected, is((Set<SelectionKey>) new HashSet<SelectionKey>(keys)));
+    }
+
+    @Test
+    public void testSelectedKeysRemoveAndClear() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(3);
+        sut_.selectNow();
+        Set<SelectionKey> selected = sut_.selectedKeys();
+
+        assertThat(selected.remove(keys.get(0)), is(true));
+        assertThat(selected.remove(keys.get(0)), is(false));
+        assertThat(selected.remove(new Object()), is(false));
+        assertThat(selected.size(), is(2));
+        assertThat(selected.contains(keys.get(0)), is(false));
+        assertThat(selected.contains(keys.get(2)), is(true));
+
+        selected.clear();
+        assertThat(selected.isEmpty(), is(true));
+        assertThat(selected.contains(keys.get(2)), is(false));
+
+        sut_.selectNow();
+        assertThat(selected.size(), is(3));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testSelectedKeysAdd() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(1);
+        sut_.selectedKeys().add(keys.get(0));
+    }
+
+    @Test
+    public void testSelectedKeysIteratorRemove() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(4);
+        sut_.selectNow();
+        Set<SelectionKey> selected = sut_.selectedKeys();
+
+        Set<SelectionKey> visited = new HashSet<SelectionKey>();
+        for (Iterator<SelectionKey> i = selected.iterator(); i.hasNext();) {
+            SelectionKey key = i.next();
+            visited.add(key);
+            if (key != keys.get(1)) {
+                i.remove();
+            }
+        }
+
+        assertThat(visited, is((Set<SelectionKey>) new HashSet<SelectionKey>(keys)));
+        assertThat(selected, is(Collections.<SelectionKey>singleton(keys.get(1))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSelectedKeysIteratorRemoveBeforeNext() throws Exception {
+        registerReadable(1);
+        sut_.selectNow();
+        sut_.selectedKeys().iterator().remove();
+    }
+
+    @Test
+    public void testSelectedKeysNestedIteration() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(3);
+        sut_.selectNow();
+        Set<SelectionKey> selected = sut_.selectedKeys();
+
+        int outer = 0;
+        for (SelectionKey key : selected) {
+            int inner = 0;
+            for (SelectionKey ignored : selected) {
+                inner++;
+            }
+            assertThat(inner, is(3));
+            assertThat(selected.contains(key), is(true));
+            assertThat(selected.containsAll(keys), is(true));
+            assertThat(selected.toString().length() > 0, is(true));
+            outer++;
+        }
+        assertThat(outer, is(3));
+    }
+
+    @Test
+    public void testSelectNowAndDispatch() throws Exception {
+        List<EPollSelectionKey> keys = registerReadable(2);
+        final List<EPollSelectionKey> handled = new ArrayList<EPollSelectionKey>();
+        ReadyKeyHandler handler = new ReadyKeyHandler() {
+            @Override
+            public void handle(EPollSelectionKey key) {
+                assertThat(key.readyOps(), is(SelectionKey.OP_READ));
+                handled.add(key);
+            }
+        };
+
+        assertThat(sut_.selectNowAndDispatch(handler), is(2));
+
+        assertThat(new HashSet<EPollSelectionKey>(handled), is(new HashSet<EPollSelectionKey>(keys)));
+        assertThat(sut_.selectedKeys().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testSelectAndDispatchTimesOut() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        pair[0].register(sut_, SelectionKey.OP_READ);
+        ReadyKeyHandler handler = new ReadyKeyHandler() {
+            @Override
+            public void handle(EPollSelectionKey key) {
+                fail();
+            }
+        };
+
+        assertThat(sut_.selectAndDispatch(handler, 10L), is(0));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSelectAndDispatchWithoutHandler() throws Exception {
+        sut_.selectAndDispatch(null, 10L);
+    }
+
+    @Test
+    public void testWakeupDuringDispatchIsNotLost() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        pair[0].register(sut_, SelectionKey.OP_READ);
+        sut_.selectNow();
+        pair[1].write(ByteBuffer.wrap(new byte[]{1}));
+        // The eventfd gets ready after the channel, so it is reported after the key.
+        sut_.wakeup();
+
+        assertThat(sut_.selectAndDispatch(new ReadyKeyHandler() {
+            @Override
+            public void handle(EPollSelectionKey key) {
+                sut_.wakeup();
+            }
+        }, 10000L), is(1));
+
+        long start = System.nanoTime();
+        assertThat(sut_.select(10000L), is(0));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000L, is(true));
+    }
+
+    @Test
+    public void testWakeupsAreCoalesced() throws Exception {
+        sut_.wakeup();
+        sut_.wakeup();
+
+        long start = System.nanoTime();
+        assertThat(sut_.select(10000L), is(0));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000L, is(true));
+
+        start = System.nanoTime();
+        assertThat(sut_.select(100L), is(0));
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90L, is(true));
+    }
+
+    @Test
+    public void testWakeupWhileSelecting() throws Exception {
+        Future<Integer> selecting = selectInBackground();
+
+        sut_.wakeup();
+
+        assertThat(selecting.get(2L, TimeUnit.SECONDS), is(0));
+    }
+
+    @Test
+    public void testCloseReleasesFileDescriptors() throws Exception {
+        File fds = new File("/proc/self/fd");
+        int before = fds.list().length;
+
+        EPollSelector.open().close();
+
+        assertThat(fds.list().length, is(before));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterWithInvalidFlags() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        sut_.register(pair[0], SelectionKey.OP_READ, null, Native.EPOLLET);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterWithInvalidOps() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        sut_.register(pair[0], SelectionKey.OP_ACCEPT, null, EPollSelector.EXCLUSIVE);
+    }
+
+    @Test
+    public void testRegisterExclusive() throws Exception {
+        File path = File.createTempFile("uds4j-selector", ".sock");
+        path.delete();
+        ServerUnixDomainChannel server = ServerUnixDomainChannel.open();
+        EPollSelector other = EPollSelector.open();
+        try {
+            server.bind(new UnixDomainSocketAddress(path.getPath()));
+            server.configureBlocking(false);
+            EPollSelectionKey key =
+                    sut_.register(server, SelectionKey.OP_ACCEPT, null, EPollSelector.EXCLUSIVE, TriggerMode.LEVEL);
+            EPollSelectionKey otherKey = other.register(server, SelectionKey.OP_ACCEPT, null, EPollSelector.EXCLUSIVE);
+            assertThat(key.flags(), is(EPollSelector.EXCLUSIVE));
+            assertThat(key.triggerMode(), is(TriggerMode.LEVEL));
+            assertThat(key.interestOps(), is(SelectionKey.OP_ACCEPT));
+            assertThat(otherKey.triggerMode(), is(TriggerMode.DEFAULT));
+            sut_.selectNow();
+            other.selectNow();
+
+            ClientUnixDomainChannel client = ClientUnixDomainChannel.open();
+            channels_.add(client);
+            client.connect(new UnixDomainSocketAddress(path.getPath()));
+            assertThat(sut_.selectNow(), is(1));
+            assertThat(key.isAcceptable(), is(true));
+
+            // The events of the key with EPOLLEXCLUSIVE are changed by deleting and adding the key again.
+            long ctlCount = sut_.getEPollCtlCount();
+            key.triggerMode(TriggerMode.EDGE);
+            sut_.selectedKeys().clear();
+            assertThat(sut_.selectNow(), is(1));
+            assertThat(sut_.getEPollCtlCount(), is(ctlCount + 2));
+            assertThat(key.isValid(), is(true));
+            assertThat(key.error(), is(nullValue()));
+        } finally {
+            other.close();
+            server.close();
+            path.delete();
+        }
+    }
+
+    @Test
+    public void testFailedAddIsRecordedOnKey() throws Exception {
+        // EPOLLEXCLUSIVE is not allowed for an epoll file descriptor.
+        ClientUnixDomainChannel channel = ClientUnixDomainChannel.wrap(Native.epoll_create(1));
+        try {
+            channel.configureBlocking(false);
+            EPollSelectionKey key = sut_.register(channel, SelectionKey.OP_READ, null, EPollSelector.EXCLUSIVE);
+
+            assertThat(sut_.selectNow(), is(0));
+
+            assertThat(key.isValid(), is(false));
+            assertThat(key.error(), is(instanceOf(ErrnoException.class)));
+            assertThat(((ErrnoException) key.error()).errno(), is(Native.EINVAL));
+            sut_.selectNow();
+            assertThat(sut_.keys().contains(key), is(false));
+        } finally {
+            channel.closeWithoutShutdown();
+        }
+    }
+
+    @Test
+    public void testRequeuedKeyIsReportedWithoutNewEdge() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        pair[1].write(ByteBuffer.wrap(new byte[]{1}));
+        assertThat(sut_.selectNow(), is(1));
+        sut_.selectedKeys().clear();
+        assertThat(sut_.selectNow(), is(0));
+
+        sut_.requeue(key, SelectionKey.OP_READ);
+
+        assertThat(sut_.selectNow(), is(1));
+        assertThat(sut_.selectedKeys().contains(key), is(true));
+        assertThat(key.readyOps(), is(SelectionKey.OP_READ));
+        sut_.selectedKeys().clear();
+        assertThat(sut_.selectNow(), is(0));
+    }
+
+    @Test
+    public void testSelectDoesNotBlockIfKeyIsRequeued() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        sut_.selectNow();
+        sut_.requeue(key, SelectionKey.OP_READ);
+
+        long start = System.nanoTime();
+        int selected = sut_.select(10000L);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(selected, is(1));
+        assertThat(elapsed < 5000L, is(true));
+    }
+
+    @Test
+    public void testRequeueWakesUpSelectingThread() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        sut_.selectNow();
+        Future<Integer> selecting = selectInBackground();
+
+        sut_.requeue(key, SelectionKey.OP_READ);
+
+        // The key requeued while selecting is taken by the selection woken up, or by the next one.
+        int selected = selecting.get(2L, TimeUnit.SECONDS);
+        if (selected == 0) {
+            selected = sut_.selectNow();
+        }
+        assertThat(selected, is(1));
+        assertThat(sut_.selectedKeys().contains(key), is(true));
+    }
+
+    @Test
+    public void testRequeuedOpsOutOfInterestSetAreIgnored() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        sut_.selectNow();
+
+        sut_.requeue(key, SelectionKey.OP_WRITE);
+
+        assertThat(sut_.selectNow(), is(0));
+        assertThat(sut_.selectedKeys().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRequeuedKeyIsReportedOnce() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ | SelectionKey.OP_WRITE,
+                null, TriggerMode.EDGE);
+        sut_.selectNow();
+        sut_.selectedKeys().clear();
+
+        sut_.requeue(key, SelectionKey.OP_READ);
+        sut_.requeue(key, SelectionKey.OP_WRITE);
+
+        assertThat(sut_.selectNow(), is(1));
+        assertThat(key.readyOps(), is(SelectionKey.OP_READ | SelectionKey.OP_WRITE));
+        sut_.selectedKeys().clear();
+        assertThat(sut_.selectNow(), is(0));
+    }
+
+    @Test
+    public void testRequeuedKeyCancelledBeforeSelectionIsSkipped() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        sut_.selectNow();
+
+        sut_.requeue(key, SelectionKey.OP_READ);
+        key.cancel();
+
+        assertThat(sut_.selectNow(), is(0));
+        assertThat(sut_.selectedKeys().isEmpty(), is(true));
+    }
+
+    @Test
+    public void testRequeueMoreKeysThanInitialCapacity() throws Exception {
+        int n = 40;
+        List<EPollSelectionKey> keys = new ArrayList<EPollSelectionKey>();
+        for (int i = 0; i < n; i++) {
+            keys.add(sut_.register(pair()[0], SelectionKey.OP_READ, null, TriggerMode.EDGE));
+        }
+        sut_.selectNow();
+
+        for (EPollSelectionKey key : keys) {
+            sut_.requeue(key, SelectionKey.OP_READ);
+        }
+
+        assertThat(sut_.selectNow(), is(n));
+        assertThat(sut_.selectedKeys(), is((Set<SelectionKey>) new HashSet<SelectionKey>(keys)));
+    }
+
+    @Test
+    public void testKeyRequeuedInDispatchIsReportedByNextSelection() throws Exception {
+        ClientUnixDomainChannel[] pair = pair();
+        EPollSelectionKey key = sut_.register(pair[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+        pair[1].write(ByteBuffer.wrap(new byte[]{1}));
+        final List<EPollSelectionKey> handled = new ArrayList<EPollSelectionKey>();
+        ReadyKeyHandler handler = new ReadyKeyHandler() {
+            @Override
+            public void handle(EPollSelectionKey key) {
+                handled.add(key);
+                if (handled.size() == 1) {
+                    sut_.requeue(key, SelectionKey.OP_READ);
+                }
+            }
+        };
+
+        assertThat(sut_.selectNowAndDispatch(handler), is(1));
+        assertThat(handled.size(), is(1));
+        assertThat(sut_.selectNowAndDispatch(handler), is(1));
+        assertThat(handled.size(), is(2));
+        assertThat(sut_.selectNowAndDispatch(handler), is(0));
+        assertThat(handled, is(Arrays.asList(key, key)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequeueKeyOfOtherSelector() throws Exception {
+        EPollSelector other = EPollSelector.open();
+        try {
+            EPollSelectionKey key = other.register(pair()[0], SelectionKey.OP_READ, null, TriggerMode.EDGE);
+            sut_.requeue(key, SelectionKey.OP_READ);
+        } finally {
+            other.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ErrnoExceptionTest {
+
+    @Test
+    public void testOfConnectionReset() throws Exception {
+        ErrnoException sut = ErrnoException.of(Native.ECONNRESET);
+
+        assertThat(sut, is(instanceOf(ConnectionResetException.class)));
+        assertThat(sut.errno(), is(Native.ECONNRESET));
+        assertThat(sut.getStackTrace().length, is(0));
+    }
+
+    @Test
+    public void testOfBrokenPipe() throws Exception {
+        ErrnoException sut = ErrnoException.of(Native.EPIPE);
+
+        assertThat(sut, is(instanceOf(BrokenPipeException.class)));
+        assertThat(sut.errno(), is(Native.EPIPE));
+        assertThat(sut.getStackTrace().length, is(0));
+    }
+
+    @Test
+    public void testOfOtherErrno() throws Exception {
+        ErrnoException sut = ErrnoException.of(Native.EINVAL);
+
+        assertThat(sut.getClass() == ErrnoException.class, is(true));
+        assertThat(sut.errno(), is(Native.EINVAL));
+        assertThat(sut.getMessage(), is(Native.strerror(Native.EINVAL)));
+        assertThat(sut.getStackTrace().length > 0, is(true));
+    }
+
+    @Test
+    public void testOfReturnsNewInstanceEachTime() throws Exception {
+        ErrnoException first = ErrnoException.of(Native.ECONNRESET);
+        first.initCause(new IllegalArgumentException());
+
+        ErrnoException second = ErrnoException.of(Native.ECONNRESET);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(second.getCause(), is(nullValue()));
+    }
+}
@@ -0,0 +1,79 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EventLoopChoosersTest {
+
+    private List<EventLoop> loops_;
+    private List<ClientUnixDomainChannel> channels_;
+
+    @Before
+    public void setUp() throws Exception {
+        loops_ = new ArrayList<EventLoop>();
+        for (int i = 0; i < 3; i++) {
+            // The loops are not started; only their selectors are used.
+            loops_.add(new EventLoop(Executors.defaultThreadFactory()));
+        }
+        channels_ = new ArrayList<ClientUnixDomainChannel>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (EventLoop loop : loops_) {
+            loop.selector().close();
+        }
+        for (ClientUnixDomainChannel channel : channels_) {
+            channel.close();
+        }
+    }
+
+    private void registerChannels(EventLoop loop, int n) throws Exception {
+        for (int i = 0; i < n; i++) {
+            List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+            channels_.addAll(pair);
+            pair.get(0).configureBlocking(false);
+            pair.get(0).register(loop.selector(), SelectionKey.OP_READ);
+        }
+    }
+
+    @Test
+    public void testRoundRobin() throws Exception {
+        EventLoopChooser sut = EventLoopChoosers.roundRobin();
+
+        List<EventLoop> chosen = new ArrayList<EventLoop>();
+        for (int i = 0; i < 6; i++) {
+            chosen.add(sut.choose(loops_));
+        }
+
+        assertThat(chosen, is(Arrays.asList(
+                loops_.get(0), loops_.get(1), loops_.get(2), loops_.get(0), loops_.get(1), loops_.get(2))));
+    }
+
+    @Test
+    public void testLeastConnections() throws Exception {
+        EventLoopChooser sut = EventLoopChoosers.leastConnections();
+        assertThat(sut.choose(loops_), is(sameInstance(loops_.get(0))));
+
+        registerChannels(loops_.get(0), 2);
+        registerChannels(loops_.get(1), 1);
+        registerChannels(loops_.get(2), 3);
+        assertThat(sut.choose(loops_), is(sameInstance(loops_.get(1))));
+
+        registerChannels(loops_.get(1), 2);
+        assertThat(sut.choose(loops_), is(sameInstance(loops_.get(0))));
+    }
+}
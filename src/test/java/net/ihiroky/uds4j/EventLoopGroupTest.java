@@ -0,0 +1,92 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.channels.SelectionKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EventLoopGroupTest {
+
+    private EventLoopGroup sut_;
+    private List<ClientUnixDomainChannel> channels_ = new ArrayList<ClientUnixDomainChannel>();
+
+    @After
+    public void tearDown() throws Exception {
+        if (sut_ != null) {
+            sut_.shutdown();
+            sut_.awaitTermination(5L, TimeUnit.SECONDS);
+        }
+        for (ClientUnixDomainChannel channel : channels_) {
+            channel.close();
+        }
+    }
+
+    private EPollSelectionKey register() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        channels_.addAll(pair);
+        return sut_.register(pair.get(0), SelectionKey.OP_READ, new ReadyKeyHandler() {
+            @Override
+            public void handle(EPollSelectionKey key) {
+            }
+        });
+    }
+
+    @Test
+    public void testRegisterInRoundRobin() throws Exception {
+        sut_ = new EventLoopGroup(2);
+        List<EventLoop> loops = sut_.loops();
+
+        EPollSelectionKey first = register();
+        EPollSelectionKey second = register();
+        EPollSelectionKey third = register();
+
+        assertThat(first.selector(), is(sameInstance((Object) loops.get(0).selector())));
+        assertThat(second.selector(), is(sameInstance((Object) loops.get(1).selector())));
+        assertThat(third.selector(), is(sameInstance((Object) loops.get(0).selector())));
+        assertThat(loops.get(0).getChannelCount(), is(2));
+        assertThat(loops.get(1).getChannelCount(), is(1));
+    }
+
+    @Test
+    public void testRegisterToLeastConnections() throws Exception {
+        sut_ = new EventLoopGroup(3, EventLoopChoosers.leastConnections());
+        List<EventLoop> loops = sut_.loops();
+
+        for (int i = 0; i < 6; i++) {
+            register();
+        }
+
+        for (EventLoop loop : loops) {
+            assertThat(loop.getChannelCount(), is(2));
+        }
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+        sut_ = new EventLoopGroup(2);
+        EPollSelectionKey key = register();
+
+        sut_.shutdown();
+
+        assertThat(sut_.awaitTermination(5L, TimeUnit.SECONDS), is(true));
+        assertThat(sut_.isTerminated(), is(true));
+        assertThat(key.channel().isOpen(), is(false));
+        for (EventLoop loop : sut_.loops()) {
+            assertThat(loop.selector().isOpen(), is(false));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNoLoops() throws Exception {
+        new EventLoopGroup(0);
+    }
+}
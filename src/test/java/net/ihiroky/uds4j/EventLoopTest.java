@@ -0,0 +1,205 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class EventLoopTest {
+
+    private EventLoop sut_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new EventLoop(Executors.defaultThreadFactory());
+        sut_.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.shutdown();
+        sut_.join(5000L);
+    }
+
+    @Test
+    public void testExecuteFromOtherThread() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicBoolean inEventLoop = new AtomicBoolean();
+
+        sut_.execute(new Runnable() {
+            @Override
+            public void run() {
+                inEventLoop.set(sut_.inEventLoop());
+                latch.countDown();
+            }
+        });
+
+        assertThat(latch.await(5L, TimeUnit.SECONDS), is(true));
+        assertThat(inEventLoop.get(), is(true));
+        assertThat(sut_.inEventLoop(), is(false));
+    }
+
+    @Test
+    public void testExecuteFromEventLoop() throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        sut_.execute(new Runnable() {
+            @Override
+            public void run() {
+                sut_.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        latch.countDown();
+                    }
+                });
+            }
+        });
+
+        assertThat(latch.await(5L, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void testRegisterDispatchesReadyKey() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        final CountDownLatch latch = new CountDownLatch(1);
+        try {
+            sut_.register(pair.get(0), SelectionKey.OP_READ, new ReadyKeyHandler() {
+                @Override
+                public void handle(EPollSelectionKey key) {
+                    if (key.isReadable()) {
+                        latch.countDown();
+                    }
+                }
+            });
+            pair.get(1).write(ByteBuffer.wrap(new byte[]{1}));
+
+            assertThat(latch.await(5L, TimeUnit.SECONDS), is(true));
+            assertThat(sut_.getChannelCount(), is(1));
+        } finally {
+            pair.get(1).close();
+        }
+    }
+
+    @Test
+    public void testShutdownRunsQueuedTasksAndClosesChannels() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        final CountDownLatch blocking = new CountDownLatch(1);
+        final AtomicInteger count = new AtomicInteger();
+        try {
+            sut_.register(pair.get(0), SelectionKey.OP_READ, new ReadyKeyHandler() {
+                @Override
+                public void handle(EPollSelectionKey key) {
+                }
+            });
+            sut_.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        blocking.await();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            sut_.execute(new Runnable() {
+                @Override
+                public void run() {
+                    count.incrementAndGet();
+                }
+            });
+
+            sut_.shutdown();
+            blocking.countDown();
+            sut_.join(5000L);
+
+            assertThat(sut_.isTerminated(), is(true));
+            assertThat(count.get(), is(1));
+            assertThat(pair.get(0).isOpen(), is(false));
+            assertThat(sut_.selector().isOpen(), is(false));
+        } finally {
+            pair.get(0).close();
+            pair.get(1).close();
+        }
+    }
+
+    @Test
+    public void testUnexpectedExceptionFromSelectorShutsDownLoop() throws Exception {
+        sut_.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    // The next selection throws ClosedSelectorException.
+                    sut_.selector().close();
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            }
+        });
+
+        sut_.join(5000L);
+
+        assertThat(sut_.isShutdown(), is(true));
+        assertThat(sut_.isTerminated(), is(true));
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void testExecuteAfterShutdown() throws Exception {
+        sut_.shutdown();
+
+        sut_.execute(new Runnable() {
+            @Override
+            public void run() {
+            }
+        });
+    }
+
+    @Test
+    public void testExecuteConcurrentlyWithShutdownRunsOrRejectsEveryTask() throws Exception {
+        final AtomicInteger run = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final AtomicInteger rejected = new AtomicInteger();
+        final int tasks = 100000;
+        Thread submitter = new Thread() {
+            @Override
+            public void run() {
+                Runnable task = new Runnable() {
+                    @Override
+                    public void run() {
+                        run.incrementAndGet();
+                    }
+                };
+                started.countDown();
+                for (int i = 0; i < tasks; i++) {
+                    try {
+                        sut_.execute(task);
+                    } catch (RejectedExecutionException ree) {
+                        rejected.incrementAndGet();
+                    }
+                }
+            }
+        };
+        submitter.start();
+        started.await();
+        sut_.shutdown();
+        submitter.join(10000L);
+        sut_.join(10000L);
+
+        assertThat(sut_.isTerminated(), is(true));
+        assertThat(run.get() + rejected.get(), is(tasks));
+    }
+}
@@ -0,0 +1,53 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class FileDescriptorsTest {
+
+    private File file_;
+    private RandomAccessFile raf_;
+
+    @Before
+    public void setUp() throws Exception {
+        file_ = File.createTempFile("uds4j-fd", ".dat");
+        raf_ = new RandomAccessFile(file_, "rw");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        raf_.close();
+        file_.delete();
+    }
+
+    @Test
+    public void testIsAvailable() throws Exception {
+        // The test task opens the JDK internals; see build.gradle.
+        assertThat(FileDescriptors.isAvailable(), is(true));
+    }
+
+    @Test
+    public void testOf() throws Exception {
+        int fd = FileDescriptors.of(raf_.getChannel());
+
+        assertThat(fd >= 0, is(true));
+        assertThat(Native.fcntl(fd, Native.F_GETFL, 0) != -1, is(true));
+    }
+
+    @Test
+    public void testOfClosedChannel() throws Exception {
+        raf_.close();
+
+        assertThat(FileDescriptors.of(raf_.getChannel()), is(-1));
+    }
+}
@@ -1,5 +1,6 @@
 package net.ihiroky.uds4j;
 
+import com.sun.jna.Pointer;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -22,30 +23,51 @@ public class IOVecBufferTest {
 
     @Test
     public void testDirect() throws Exception {
-        ByteBuffer direct = ByteBuffer.allocateDirect(3);
-        int beforePoolSize = sut_.getPooledBuffers();
+        ByteBuffer direct = ByteBuffer.allocateDirect(5);
+        direct.position(2);
         sut_.set(10, direct);
 
-        Native.IOVec vec = sut_.get(10);
-        assertThat(vec.iovBase_, is(sameInstance(direct)));
-        assertThat(vec.iovLen_, is(direct.remaining()));
-        assertThat(sut_.getPooledBuffers(), is(beforePoolSize));
+        long address = Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(direct));
+        assertThat(sut_.base(10), is(sameInstance(direct)));
+        assertThat(sut_.address(10), is(address + 2));
+        assertThat(sut_.length(10), is(3L));
         sut_.clear(10, direct);
+        assertThat(sut_.base(10), is(nullValue()));
     }
 
     @Test
     public void testIndirect() throws Exception {
         ByteBuffer indirect = ByteBuffer.allocate(3);
-        int beforePoolSize = sut_.getPooledBuffers();
         indirect.put(new byte[]{0, 1, 2}).flip();
 
-        sut_.set(10, indirect); // In this case, no suitable buffer is found. So Allocate new one.
+        sut_.set(10, indirect);
 
-        Native.IOVec vec = sut_.get(10);
-        assertThat(vec.iovBase_.isDirect(), is(true));
-        assertThat(vec.iovBase_, is(indirect));
-        assertThat(vec.iovLen_, is(indirect.remaining()));
+        ByteBuffer base = sut_.base(10);
+        long address = Pointer.nativeValue(com.sun.jna.Native.getDirectBufferPointer(base));
+        assertThat(base.isDirect(), is(true));
+        assertThat(base, is(indirect));
+        assertThat(sut_.address(10), is(address));
+        assertThat(sut_.length(10), is((long) indirect.remaining()));
         sut_.clear(10, indirect);
-        assertThat(sut_.getPooledBuffers(), is(beforePoolSize + 1));
+        assertThat(sut_.base(10), is(nullValue()));
+        ByteBuffer reused = BufferArena.getInstance().acquire(3);
+        assertThat(reused, is(sameInstance(base)));
+        BufferArena.getInstance().release(reused);
+    }
+
+    @Test
+    public void testReserve() throws Exception {
+        int capacity = sut_.capacity();
+
+        sut_.reserve(capacity);
+        assertThat(sut_.capacity(), is(capacity));
+
+        sut_.reserve(Native.IOV_MAX);
+        assertThat(sut_.capacity(), is(Native.IOV_MAX));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReserveBeyondIovMax() throws Exception {
+        sut_.reserve(Native.IOV_MAX + 1);
     }
 }
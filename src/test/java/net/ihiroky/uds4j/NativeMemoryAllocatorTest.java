@@ -0,0 +1,63 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class NativeMemoryAllocatorTest {
+
+    private NativeMemoryAllocator sut_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new NativeMemoryAllocator(100);
+    }
+
+    @Test
+    public void testAllocateThenFree() throws Exception {
+        ByteBuffer buffer = sut_.allocate(60);
+        buffer.putLong(0, 12345L);
+
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.capacity(), is(60));
+        assertThat(buffer.getLong(0), is(12345L));
+        assertThat(sut_.allocatedBytes(), is(60L));
+        assertThat(sut_.free(buffer), is(true));
+        assertThat(sut_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testAllocateBeyondCap() throws Exception {
+        ByteBuffer buffer = sut_.allocate(60);
+        try {
+            sut_.allocate(41);
+            fail();
+        } catch (OutOfNativeMemoryException expected) {
+            assertThat(sut_.allocatedBytes(), is(60L));
+        }
+        assertThat(sut_.free(buffer), is(true));
+        assertThat(sut_.allocate(100).capacity(), is(100));
+    }
+
+    @Test
+    public void testFreeTwice() throws Exception {
+        ByteBuffer buffer = sut_.allocate(60);
+        sut_.free(buffer);
+
+        assertThat(sut_.free(buffer), is(false));
+        assertThat(sut_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testFreeForeignBuffer() throws Exception {
+        assertThat(sut_.free(ByteBuffer.allocateDirect(10)), is(false));
+        assertThat(sut_.free(ByteBuffer.allocate(10)), is(false));
+    }
+}
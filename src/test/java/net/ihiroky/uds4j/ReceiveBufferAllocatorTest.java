@@ -0,0 +1,80 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ReceiveBufferAllocatorTest {
+
+    private ReceiveBufferAllocator sut_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new ReceiveBufferAllocator(64, 1024, 8192, false);
+    }
+
+    @Test
+    public void testRecordFullReadIncreasesSize() throws Exception {
+        sut_.record(1024);
+        assertThat(sut_.nextSize(), is(4096));
+
+        sut_.record(4096);
+        assertThat(sut_.nextSize(), is(8192));
+    }
+
+    @Test
+    public void testRecordSmallReadsDecreaseSize() throws Exception {
+        sut_.record(10);
+        assertThat(sut_.nextSize(), is(1024));
+
+        sut_.record(10);
+        assertThat(sut_.nextSize(), is(512));
+
+        for (int i = 0; i < 20; i++) {
+            sut_.record(10);
+        }
+        assertThat(sut_.nextSize(), is(64));
+    }
+
+    @Test
+    public void testRecordMediumReadKeepsSize() throws Exception {
+        sut_.record(10);
+        sut_.record(600);
+        sut_.record(10);
+
+        assertThat(sut_.nextSize(), is(1024));
+    }
+
+    @Test
+    public void testReadWithFionread() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel writer = pair.get(0);
+        ClientUnixDomainChannel reader = pair.get(1);
+        try {
+            reader.configureBlocking(false);
+            sut_ = new ReceiveBufferAllocator(64, 1024, 8192, true);
+
+            assertThat(reader.read(sut_), is(nullValue()));
+
+            writer.write(ByteBuffer.allocate(3000));
+            ByteBuffer buffer = reader.read(sut_);
+            assertThat(buffer.remaining(), is(3000));
+            assertThat(buffer.capacity(), is(4096));
+            sut_.release(buffer);
+
+            writer.close();
+            assertThat(reader.read(sut_), is(sameInstance(ReadWriteUnixDomainChannel.END_OF_STREAM)));
+        } finally {
+            writer.close();
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SelectionKeyTableTest {
+
+    private SelectionKeyTable sut_;
+
+    @Before
+    public void setUp() throws Exception {
+        sut_ = new SelectionKeyTable(2);
+    }
+
+    private static EPollSelectionKey newKey() {
+        return new EPollSelectionKey(null, null, 0);
+    }
+
+    @Test
+    public void testAddThenGet() throws Exception {
+        EPollSelectionKey key0 = newKey();
+        EPollSelectionKey key1 = newKey();
+
+        long data0 = sut_.add(key0);
+        long data1 = sut_.add(key1);
+
+        assertThat(sut_.get(data0), is(sameInstance(key0)));
+        assertThat(sut_.get(data1), is(sameInstance(key1)));
+        assertThat(key0.epollData(), is(data0));
+        assertThat(key1.epollData(), is(data1));
+        assertThat(sut_.size(), is(2));
+    }
+
+    @Test
+    public void testAddGrowsTable() throws Exception {
+        EPollSelectionKey[] keys = new EPollSelectionKey[5];
+        long[] data = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = newKey();
+            data[i] = sut_.add(keys[i]);
+        }
+
+        for (int i = 0; i < keys.length; i++) {
+            assertThat(sut_.get(data[i]), is(sameInstance(keys[i])));
+        }
+        assertThat(sut_.capacity(), is(8));
+    }
+
+    @Test
+    public void testGetRejectsStaleData() throws Exception {
+        EPollSelectionKey key0 = newKey();
+        long data0 = sut_.add(key0);
+        sut_.remove(key0);
+        EPollSelectionKey key1 = newKey();
+        long data1 = sut_.add(key1);
+
+        assertThat(sut_.get(data0), is(nullValue()));
+        assertThat(sut_.get(data1), is(sameInstance(key1)));
+        assertThat(data1, is(not(data0)));
+        assertThat(key0.epollData(), is(SelectionKeyTable.NO_KEY));
+    }
+
+    @Test
+    public void testRemoveUnknownKey() throws Exception {
+        sut_.add(newKey());
+
+        assertThat(sut_.remove(newKey()), is(false));
+        assertThat(sut_.size(), is(1));
+    }
+
+    @Test
+    public void testGetNoKey() throws Exception {
+        sut_.add(newKey());
+
+        assertThat(sut_.get(SelectionKeyTable.NO_KEY), is(nullValue()));
+    }
+}
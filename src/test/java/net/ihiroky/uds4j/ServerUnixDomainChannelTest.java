@@ -0,0 +1,154 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.IllegalBlockingModeException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ServerUnixDomainChannelTest {
+
+    private ServerUnixDomainChannel sut_;
+    private File path_;
+    private List<ClientUnixDomainChannel> channels_;
+
+    @Before
+    public void setUp() throws Exception {
+        path_ = File.createTempFile("uds4j-server", ".sock");
+        path_.delete();
+        sut_ = ServerUnixDomainChannel.open();
+        sut_.bind(new UnixDomainSocketAddress(path_.getPath()));
+        sut_.configureBlocking(false);
+        channels_ = new ArrayList<ClientUnixDomainChannel>();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (ClientUnixDomainChannel channel : channels_) {
+            channel.close();
+        }
+        sut_.close();
+        path_.delete();
+    }
+
+    private ClientUnixDomainChannel connect() throws Exception {
+        ClientUnixDomainChannel client = ClientUnixDomainChannel.open();
+        channels_.add(client);
+        client.connect(new UnixDomainSocketAddress(path_.getPath()));
+        return client;
+    }
+
+    @Test
+    public void testBindToAddressInUseThrowsErrnoException() throws Exception {
+        ServerUnixDomainChannel other = ServerUnixDomainChannel.open();
+        try {
+            other.bind(new UnixDomainSocketAddress(path_.getPath()));
+            fail();
+        } catch (ErrnoException ee) {
+            assertThat(ee.getMessage(), is(Native.strerror(ee.errno())));
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testAcceptAllUpToMax() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            connect();
+        }
+        List<ClientUnixDomainChannel> accepted = channels_;
+        int connected = accepted.size();
+
+        assertThat(sut_.acceptAll(accepted, 2), is(2));
+        assertThat(accepted.size(), is(connected + 2));
+        assertThat(sut_.acceptAll(accepted, 2), is(1));
+        assertThat(accepted.size(), is(connected + 3));
+        for (ClientUnixDomainChannel channel : accepted.subList(connected, accepted.size())) {
+            assertThat(channel.isConnected(), is(true));
+            assertThat(channel.isBlocking(), is(false));
+        }
+    }
+
+    @Test
+    public void testAcceptAllReturnsZeroWithoutConnection() throws Exception {
+        List<ClientUnixDomainChannel> accepted = new ArrayList<ClientUnixDomainChannel>();
+
+        assertThat(sut_.acceptAll(accepted, 2), is(0));
+        assertThat(accepted.isEmpty(), is(true));
+    }
+
+    @Test(expected = IllegalBlockingModeException.class)
+    public void testAcceptAllInBlockingMode() throws Exception {
+        sut_.configureBlocking(true);
+        sut_.acceptAll(new ArrayList<ClientUnixDomainChannel>(), 1);
+    }
+
+    @Test
+    public void testAddressesOfAcceptedChannelAreLookedUp() throws Exception {
+        File clientPath = File.createTempFile("uds4j-client", ".sock");
+        clientPath.delete();
+        try {
+            ClientUnixDomainChannel client = ClientUnixDomainChannel.open();
+            channels_.add(client);
+            client.bind(new UnixDomainSocketAddress(clientPath.getPath()));
+            client.connect(new UnixDomainSocketAddress(path_.getPath()));
+            connect();
+
+            List<ClientUnixDomainChannel> accepted = new ArrayList<ClientUnixDomainChannel>();
+            assertThat(sut_.acceptAll(accepted, 2), is(2));
+            channels_.addAll(accepted);
+
+            UnixDomainSocketAddress remote = (UnixDomainSocketAddress) accepted.get(0).getRemoteAddress();
+            UnixDomainSocketAddress local = (UnixDomainSocketAddress) accepted.get(0).getLocalAddress();
+            assertThat(remote.toString(), is(clientPath.getPath()));
+            assertThat(local.toString(), is(path_.getPath()));
+            assertThat(accepted.get(1).getRemoteAddress(), is(nullValue()));
+        } finally {
+            clientPath.delete();
+        }
+    }
+
+    @Test
+    public void testAcceptAllThrowsErrorAfterSomeConnectionsAreAccepted() throws Exception {
+        connect();
+        connect();
+        List<ClientUnixDomainChannel> accepted = new ArrayList<ClientUnixDomainChannel>();
+        // Load the classes used below, which can't be loaded while no file descriptor is available.
+        ErrnoException.of(Native.EINVAL);
+
+        // Use up the file descriptors but one, so the second accept fails with EMFILE.
+        List<Integer> fds = new ArrayList<Integer>();
+        IOException error = null;
+        try {
+            int fd;
+            while ((fd = Native.eventfd(0, 0)) != -1) {
+                fds.add(fd);
+            }
+            Native.close(fds.remove(fds.size() - 1));
+
+            try {
+                sut_.acceptAll(accepted, 2);
+            } catch (IOException ioe) {
+                error = ioe;
+            }
+        } finally {
+            for (int fd : fds) {
+                Native.close(fd);
+            }
+            channels_.addAll(accepted);
+        }
+
+        assertThat(error, is(instanceOf(ErrnoException.class)));
+        assertThat(accepted.size(), is(1));
+    }
+}
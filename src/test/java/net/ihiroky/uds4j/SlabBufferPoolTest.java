@@ -0,0 +1,221 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class SlabBufferPoolTest {
+
+    private SlabBufferPool sut_;
+    private NativeMemoryAllocator allocator_;
+
+    @Before
+    public void setUp() throws Exception {
+        allocator_ = new NativeMemoryAllocator(2 * 1024 * 1024);
+        sut_ = new SlabBufferPool(allocator_, 4, 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.close();
+    }
+
+    @Test
+    public void testSizeClass() throws Exception {
+        assertThat(SlabBufferPool.sizeClass(0), is(0));
+        assertThat(SlabBufferPool.sizeClass(64), is(0));
+        assertThat(SlabBufferPool.sizeClass(65), is(1));
+        assertThat(SlabBufferPool.sizeClass(128), is(1));
+        assertThat(SlabBufferPool.sizeClass(SlabBufferPool.MAX_BUFFER_SIZE), is(14));
+        assertThat(SlabBufferPool.sizeClass(SlabBufferPool.MAX_BUFFER_SIZE + 1), is(-1));
+    }
+
+    @Test
+    public void testAcquireCarvesChunk() throws Exception {
+        ByteBuffer buffer = sut_.acquire(100);
+
+        assertThat(buffer.isDirect(), is(true));
+        assertThat(buffer.capacity(), is(128));
+        assertThat(buffer.position(), is(0));
+        assertThat(buffer.limit(), is(100));
+        assertThat(sut_.count(), is(3));
+        assertThat(sut_.allocatedBytes(), is(512L));
+    }
+
+    @Test
+    public void testReleaseThenAcquire() throws Exception {
+        ByteBuffer b0 = sut_.acquire(100);
+        b0.position(10);
+        sut_.release(b0);
+
+        ByteBuffer b1 = sut_.acquire(70);
+
+        assertThat(b1, is(sameInstance(b0)));
+        assertThat(b1.position(), is(0));
+        assertThat(b1.limit(), is(70));
+        assertThat(sut_.allocatedBytes(), is(512L));
+    }
+
+    @Test
+    public void testAcquireBeyondClassCap() throws Exception {
+        for (int i = 0; i < 4; i++) {
+            sut_.acquire(64);
+        }
+
+        ByteBuffer buffer = sut_.acquire(64);
+        assertThat(allocator_.allocatedBytes(), is(256L + 64L));
+        sut_.release(buffer);
+
+        assertThat(buffer.capacity(), is(64));
+        assertThat(sut_.count(), is(0));
+        assertThat(sut_.allocatedBytes(), is(256L));
+        assertThat(allocator_.allocatedBytes(), is(256L));
+    }
+
+    @Test
+    public void testAcquireBeyondTotalCap() throws Exception {
+        sut_.close();
+        sut_ = new SlabBufferPool(allocator_, 4, 1000);
+
+        ByteBuffer[] buffers = new ByteBuffer[4];
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = sut_.acquire(256);
+        }
+
+        assertThat(sut_.allocatedBytes(), is(768L));
+        assertThat(sut_.count(), is(0));
+    }
+
+    @Test
+    public void testAcquireBeyondAllocatorCap() throws Exception {
+        sut_.close();
+        allocator_ = new NativeMemoryAllocator(100);
+        sut_ = new SlabBufferPool(allocator_, 4, 1024 * 1024);
+
+        // The chunk of 4 buffers exceeds the cap, so the buffer is allocated alone.
+        ByteBuffer unpooled = sut_.acquire(64);
+        assertThat(unpooled.capacity(), is(64));
+        assertThat(sut_.allocatedBytes(), is(0L));
+        assertThat(allocator_.allocatedBytes(), is(64L));
+        try {
+            sut_.acquire(64);
+            fail();
+        } catch (OutOfNativeMemoryException expected) {
+            assertThat(allocator_.allocatedBytes(), is(64L));
+        }
+
+        sut_.release(unpooled);
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testAcquireLargerThanMaxSize() throws Exception {
+        ByteBuffer buffer = sut_.acquire(SlabBufferPool.MAX_BUFFER_SIZE + 1);
+        sut_.release(buffer);
+
+        assertThat(buffer.capacity(), is(SlabBufferPool.MAX_BUFFER_SIZE + 1));
+        assertThat(sut_.count(), is(0));
+        assertThat(sut_.allocatedBytes(), is(0L));
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test
+    public void testTrim() throws Exception {
+        ByteBuffer b0 = sut_.acquire(64);
+        ByteBuffer b1 = sut_.acquire(128);
+        sut_.release(b0);
+
+        long trimmed = sut_.trim();
+
+        assertThat(trimmed, is(256L));
+        assertThat(sut_.count(), is(3));
+        assertThat(sut_.allocatedBytes(), is(512L));
+        assertThat(allocator_.allocatedBytes(), is(512L));
+        sut_.release(b1);
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        sut_.acquire(64);
+        sut_.acquire(128);
+
+        sut_.close();
+
+        assertThat(sut_.count(), is(0));
+        assertThat(sut_.allocatedBytes(), is(0L));
+        assertThat(allocator_.allocatedBytes(), is(0L));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReleaseTwice() throws Exception {
+        ByteBuffer buffer = sut_.acquire(64);
+        sut_.release(buffer);
+
+        sut_.release(buffer);
+    }
+
+    @Test
+    public void testReleaseTwiceDoesNotDuplicateFreeBuffer() throws Exception {
+        ByteBuffer buffer = sut_.acquire(64);
+        sut_.release(buffer);
+        try {
+            sut_.release(buffer);
+            fail();
+        } catch (IllegalStateException expected) {
+            assertThat(sut_.count(), is(4));
+        }
+
+        assertThat(sut_.acquire(64), is(not(sameInstance(sut_.acquire(64)))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReleaseSliceOfPooledBuffer() throws Exception {
+        ByteBuffer buffer = sut_.acquire(128);
+        buffer.position(64);
+
+        sut_.release(buffer.slice());
+    }
+
+    @Test
+    public void testReleaseBuffersOfManyChunks() throws Exception {
+        // A chunk for each class, 256KB in total.
+        ByteBuffer[] buffers = new ByteBuffer[10];
+        for (int sc = 0; sc < buffers.length; sc++) {
+            buffers[sc] = sut_.acquire(SlabBufferPool.classSize(sc));
+        }
+        for (ByteBuffer buffer : buffers) {
+            sut_.release(buffer);
+        }
+        for (int sc = 0; sc < buffers.length; sc++) {
+            assertThat(sut_.acquire(SlabBufferPool.classSize(sc)), is(sameInstance(buffers[sc])));
+        }
+    }
+
+    @Test
+    public void testReleaseHeapBuffer() throws Exception {
+        sut_.release(ByteBuffer.allocate(64));
+
+        assertThat(sut_.count(), is(0));
+    }
+
+    @Test
+    public void testOwns() throws Exception {
+        ByteBuffer pooled = sut_.acquire(64);
+        ByteBuffer unpooled = allocator_.allocate(64);
+
+        assertThat(sut_.owns(pooled), is(true));
+        assertThat(sut_.owns(unpooled), is(false));
+        assertThat(sut_.owns(ByteBuffer.allocate(64)), is(false));
+        pooled.position(32);
+        assertThat(sut_.owns(pooled.slice()), is(false));
+        allocator_.free(unpooled);
+    }
+}
@@ -0,0 +1,78 @@
+package net.ihiroky.uds4j;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TriggerModeTest {
+
+    @Test
+    public void testToEPollEvents() throws Exception {
+        assertThat(TriggerMode.DEFAULT.toEPollEvents(SelectionKey.OP_READ), is(Native.EPOLLIN | Native.EPOLLET));
+        assertThat(TriggerMode.DEFAULT.toEPollEvents(SelectionKey.OP_CONNECT), is(Native.EPOLLOUT));
+        assertThat(TriggerMode.LEVEL.toEPollEvents(SelectionKey.OP_ACCEPT), is(Native.EPOLLIN));
+        assertThat(TriggerMode.EDGE.toEPollEvents(SelectionKey.OP_CONNECT), is(Native.EPOLLOUT | Native.EPOLLET));
+        assertThat(TriggerMode.ONESHOT.toEPollEvents(SelectionKey.OP_READ | SelectionKey.OP_WRITE),
+                is(Native.EPOLLIN | Native.EPOLLOUT | Native.EPOLLONESHOT));
+        assertThat(TriggerMode.EDGE.toEPollEvents(0), is(0));
+    }
+
+    @Test
+    public void testLevelAndOneshot() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel writer = pair.get(0);
+        ClientUnixDomainChannel reader = pair.get(1);
+        List<ClientUnixDomainChannel> oneshotPair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel oneshotWriter = oneshotPair.get(0);
+        ClientUnixDomainChannel oneshotReader = oneshotPair.get(1);
+        EPollSelector selector = EPollSelector.open();
+        try {
+            reader.configureBlocking(false);
+            oneshotReader.configureBlocking(false);
+            EPollSelectionKey level = selector.register(reader, SelectionKey.OP_READ, null, TriggerMode.LEVEL);
+            EPollSelectionKey oneshot =
+                    selector.register(oneshotReader, SelectionKey.OP_READ, null, TriggerMode.ONESHOT);
+            writer.write(ByteBuffer.allocate(1));
+            oneshotWriter.write(ByteBuffer.allocate(1));
+
+            assertThat(selector.selectNow(), is(2));
+            selector.selectedKeys().clear();
+            assertThat(selector.selectNow(), is(1));
+            assertThat(selector.selectedKeys().contains(level), is(true));
+            selector.selectedKeys().clear();
+
+            oneshot.interestOps(SelectionKey.OP_READ);
+            assertThat(selector.selectNow(), is(2));
+            assertThat(selector.selectedKeys().contains(oneshot), is(true));
+        } finally {
+            selector.close();
+            writer.close();
+            reader.close();
+            oneshotWriter.close();
+            oneshotReader.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOneshotWithExclusive() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        ClientUnixDomainChannel channel = pair.get(0);
+        EPollSelector selector = EPollSelector.open();
+        try {
+            channel.configureBlocking(false);
+            selector.register(channel, SelectionKey.OP_READ, null, EPollSelector.EXCLUSIVE, TriggerMode.ONESHOT);
+        } finally {
+            selector.close();
+            channel.close();
+            pair.get(1).close();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class UnixDomainRelayTest {
+
+    private UnixDomainRelay sut_;
+    private EPollSelector selector_;
+    private ClientUnixDomainChannel client_;
+    private ClientUnixDomainChannel backend_;
+
+    @Before
+    public void setUp() throws Exception {
+        ClientUnixDomainChannel[] first = pair();
+        ClientUnixDomainChannel[] second = pair();
+        client_ = first[0];
+        backend_ = second[1];
+        selector_ = EPollSelector.open();
+        sut_ = new UnixDomainRelay(first[1], second[0], 16 * 1024);
+        sut_.register(selector_);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.close();
+        selector_.close();
+        client_.close();
+        backend_.close();
+    }
+
+    private static ClientUnixDomainChannel[] pair() throws Exception {
+        ClientUnixDomainChannel[] pair = ClientUnixDomainChannel.pair().toArray(new ClientUnixDomainChannel[2]);
+        pair[0].configureBlocking(false);
+        pair[1].configureBlocking(false);
+        return pair;
+    }
+
+    @Test
+    public void testRelayBothDirectionsAndHalfClose() throws Exception {
+        byte[] data = new byte[1024 * 1024];
+        new Random(0).nextBytes(data);
+        ByteBuffer request = ByteBuffer.wrap(data);
+        ByteBuffer received = ByteBuffer.allocate(data.length);
+
+        for (int i = 0; i < 1000 && received.hasRemaining(); i++) {
+            client_.write(request);
+            selector_.selectNowAndDispatch(sut_);
+            backend_.read(received);
+        }
+        received.flip();
+        assertThat(received, is(ByteBuffer.wrap(data)));
+
+        backend_.write(ByteBuffer.wrap(new byte[]{1, 2, 3}));
+        client_.shutdownOutput();
+        selector_.selectNowAndDispatch(sut_);
+        assertThat(backend_.read(ByteBuffer.allocate(1)), is(-1));
+        ByteBuffer response = ByteBuffer.allocate(4);
+        assertThat(client_.read(response), is(3));
+        assertThat(sut_.isOpen(), is(true));
+
+        backend_.shutdownOutput();
+        selector_.selectNowAndDispatch(sut_);
+        assertThat(client_.read(response), is(-1));
+        assertThat(sut_.isOpen(), is(false));
+    }
+}
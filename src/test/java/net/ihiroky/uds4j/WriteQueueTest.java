@@ -0,0 +1,100 @@
+package net.ihiroky.uds4j;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class WriteQueueTest {
+
+    private WriteQueue sut_;
+    private ClientUnixDomainChannel writer_;
+    private ClientUnixDomainChannel reader_;
+    private List<Boolean> changes_;
+
+    @Before
+    public void setUp() throws Exception {
+        List<ClientUnixDomainChannel> pair = ClientUnixDomainChannel.pair();
+        writer_ = pair.get(0);
+        reader_ = pair.get(1);
+        writer_.configureBlocking(false);
+        reader_.configureBlocking(false);
+        changes_ = new ArrayList<Boolean>();
+        sut_ = new WriteQueue(writer_, 4, 8, new WritabilityListener() {
+            @Override
+            public void writabilityChanged(WriteQueue queue, boolean writable) {
+                changes_.add(writable);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        sut_.clear();
+        writer_.close();
+        reader_.close();
+    }
+
+    private static ByteBuffer bytes(String s) throws Exception {
+        return ByteBuffer.wrap(s.getBytes("UTF-8"));
+    }
+
+    private String readAll() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        reader_.read(buffer);
+        buffer.flip();
+        byte[] b = new byte[buffer.remaining()];
+        buffer.get(b);
+        return new String(b, "UTF-8");
+    }
+
+    @Test
+    public void testSmallHeapBuffersAreCombined() throws Exception {
+        sut_.enqueue(bytes("abc"));
+        sut_.enqueue(bytes("de"));
+        sut_.enqueue(bytes("f"));
+
+        assertThat(sut_.size(), is(1));
+        assertThat(sut_.pendingBytes(), is(6L));
+    }
+
+    @Test
+    public void testFlush() throws Exception {
+        sut_.enqueue(bytes("abc"));
+        ByteBuffer direct = ByteBuffer.allocateDirect(2);
+        direct.put(bytes("de")).flip();
+        sut_.enqueue(direct);
+        sut_.enqueue(bytes("f"));
+
+        boolean empty = sut_.flush(null);
+
+        assertThat(empty, is(true));
+        assertThat(sut_.isEmpty(), is(true));
+        assertThat(sut_.pendingBytes(), is(0L));
+        assertThat(readAll(), is("abcdef"));
+    }
+
+    @Test
+    public void testWatermarks() throws Exception {
+        sut_.enqueue(bytes("abcdefgh"));
+        assertThat(sut_.isWritable(), is(true));
+
+        sut_.enqueue(bytes("i"));
+        assertThat(sut_.isWritable(), is(false));
+
+        sut_.flush(null);
+        assertThat(sut_.isWritable(), is(true));
+        assertThat(changes_, is(Arrays.asList(false, true)));
+        assertThat(readAll(), is("abcdefghi"));
+    }
+}